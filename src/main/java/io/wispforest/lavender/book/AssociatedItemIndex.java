@@ -0,0 +1,112 @@
+package io.wispforest.lavender.book;
+
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtHelper;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * A global index from items to the entries of all loaded books which
+ * declare them as associated items. Candidates are bucketed by item, and
+ * within that grouped by their associated NBT - a lookup costs one hash lookup
+ * for the item plus one NBT containment check per distinct associated NBT of it
+ * <p>
+ * The index is rebuilt lazily whenever the entries of any book change, and
+ * the result of the last lookup is memoized, since tooltips and the entry
+ * HUD tend to query the same stack many frames in a row. The memo is keyed
+ * on a copy of the stack, so that stacks whose NBT is modified in place miss it
+ */
+public final class AssociatedItemIndex {
+
+    private static final Map<Item, ItemBucket> BUCKETS = new HashMap<>();
+    private static boolean stale = true;
+
+    private static ItemStack lastStack = ItemStack.EMPTY;
+    private static List<Match> lastMatches = List.of();
+
+    private AssociatedItemIndex() {}
+
+    /**
+     * @return All entries across all loaded books which are associated with {@code stack}.
+     * Entries associated with an item without NBT match any stack of that item, entries with
+     * NBT match all stacks whose NBT contains at least the associated NBT
+     */
+    public static List<Match> lookup(ItemStack stack) {
+        if (stale) rebuild();
+        if (!lastStack.isEmpty() && ItemStack.canCombine(stack, lastStack)) return lastMatches;
+
+        var bucket = BUCKETS.get(stack.getItem());
+        var matches = bucket != null ? bucket.lookup(stack.getNbt()) : List.<Match>of();
+
+        lastStack = stack.copyWithCount(1);
+        lastMatches = matches;
+
+        return matches;
+    }
+
+    /**
+     * @return The first entry of {@code book} associated with {@code stack}, if any
+     */
+    public static @Nullable Entry lookup(Book book, ItemStack stack) {
+        for (var match : lookup(stack)) {
+            if (match.book() == book) return match.entry();
+        }
+
+        return null;
+    }
+
+    static void invalidate() {
+        stale = true;
+
+        lastStack = ItemStack.EMPTY;
+        lastMatches = List.of();
+    }
+
+    private static void rebuild() {
+        BUCKETS.clear();
+
+        for (var book : BookLoader.loadedBooks()) {
+            for (var entry : book.entries()) {
+                for (var associatedStack : entry.associatedItems()) {
+                    BUCKETS.computeIfAbsent(associatedStack.getItem(), $ -> new ItemBucket()).add(new Match(book, entry), associatedStack.getNbt());
+                }
+            }
+        }
+
+        stale = false;
+    }
+
+    public record Match(Book book, Entry entry) {}
+
+    private static final class ItemBucket {
+
+        private final List<Match> anyNbt = new ArrayList<>();
+        private final Map<NbtCompound, List<Match>> exactNbt = new HashMap<>();
+
+        private void add(Match match, @Nullable NbtCompound nbt) {
+            if (nbt == null) {
+                this.anyNbt.add(match);
+            } else {
+                this.exactNbt.computeIfAbsent(nbt, $ -> new ArrayList<>()).add(match);
+            }
+        }
+
+        private List<Match> lookup(@Nullable NbtCompound nbt) {
+            if (nbt == null || this.exactNbt.isEmpty()) return this.anyNbt;
+
+            var matches = new ArrayList<>(this.anyNbt);
+
+            // associated NBT only needs to be contained in the stack's
+            // NBT, so every distinct candidate is checked individually
+            this.exactNbt.forEach((candidateNbt, candidates) -> {
+                if (!NbtHelper.matches(candidateNbt, nbt, true)) return;
+                matches.addAll(candidates);
+            });
+
+            return matches;
+        }
+    }
+}
@@ -1,34 +1,30 @@
 package io.wispforest.lavender.book;
 
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
-import com.google.gson.JsonParseException;
+import com.google.common.hash.Hashing;
 import io.wispforest.lavender.Lavender;
+import io.wispforest.lavender.client.LavenderClient;
 import io.wispforest.owo.ui.core.Component;
 import io.wispforest.owo.ui.core.Sizing;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
-import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.network.ClientAdvancementManager;
 import net.minecraft.client.network.ClientPlayerEntity;
-import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
-import net.minecraft.nbt.NbtHelper;
 import net.minecraft.sound.SoundEvent;
 import net.minecraft.sound.SoundEvents;
 import net.minecraft.util.Identifier;
-import org.jetbrains.annotations.NotNull;
+import net.minecraft.util.Util;
 import org.jetbrains.annotations.Nullable;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public final class Book {
 
-    private static final Pattern MACRO_NAME_PATTERN = Pattern.compile("[a-zA-Z0-9_-]+");
-    private static final Pattern MACRO_ARG_PATTERN = Pattern.compile("\\$\\d+");
-
     private final Identifier id;
     private final @Nullable Identifier texture;
     private final @Nullable Identifier dynamicBookModel;
@@ -36,8 +32,9 @@ public final class Book {
     private final @Nullable Identifier introEntry;
     private final boolean displayUnreadEntryNotifications;
     private final boolean displayCompletion;
-    private final Map<String, String> zeroArgMacros = new HashMap<>();
-    private final Map<Pattern, Macro> macros = new HashMap<>();
+    private final boolean prefetchEntries;
+    private final MacroExpander macroExpander;
+    private final long macroHash;
 
     private final @Nullable Identifier extend;
     private @Nullable Book resolvedExtend = null;
@@ -49,13 +46,26 @@ public final class Book {
     private final Collection<Entry> entriesView = Collections.unmodifiableCollection(this.entriesById.values());
 
     private final Map<Category, List<Entry>> entriesByCategory = new HashMap<>();
-    private final Multimap<Item, Entry> entriesByAssociatedItem = HashMultimap.create();
 
     private final List<Entry> orphanedEntries = new ArrayList<>();
     private final Collection<Entry> orphanedEntriesView = Collections.unmodifiableCollection(this.orphanedEntries);
 
+    private final Map<Identifier, CategoryNode> categoryNodes = new HashMap<>();
+
+    private final Object2IntMap<Identifier> entryIndices = new Object2IntOpenHashMap<>();
+    private final BitSet visibleEntries = new BitSet();
+    private final BitSet viewedEntries = new BitSet();
+    private @Nullable UUID viewedEntriesWorld = null;
+    private final IntArrayList freeEntryIndices = new IntArrayList();
+    private int nextEntryIndex = 0;
+    private int visibleEntryCount = 0;
+    private int visibilityVersion = 0;
+
     private @Nullable Entry landingPage = null;
 
+    private volatile @Nullable EntrySearchIndex searchIndex = null;
+    private int searchIndexGeneration = 0;
+
     public Book(
             Identifier id,
             @Nullable Identifier extend,
@@ -66,6 +76,7 @@ public final class Book {
             @Nullable Identifier introEntry,
             boolean displayUnreadEntryNotifications,
             boolean displayCompletion,
+            boolean prefetchEntries,
             Map<String, String> macros
     ) {
         this.id = id;
@@ -77,37 +88,36 @@ public final class Book {
         this.introEntry = introEntry;
         this.displayUnreadEntryNotifications = displayUnreadEntryNotifications;
         this.displayCompletion = displayCompletion;
+        this.prefetchEntries = prefetchEntries;
 
-        macros.forEach((macro, replacement) -> {
-            int argCount = (int) MACRO_ARG_PATTERN.matcher(replacement).results().count();
-            if (argCount > 0) {
-                if (!MACRO_NAME_PATTERN.asPredicate().test(macro)) {
-                    throw new JsonParseException("Parametrized macro '" + macro + "' contains invalid characters. Parametrized macro names must only contain '[a-zA-Z0-9_-]'");
-                }
-
-                var parts = new ArrayList<String>();
-                var argIndices = new IntArrayList();
-
-                var result = new StringBuilder(replacement);
-                var argMatcher = MACRO_ARG_PATTERN.matcher(result);
-
-                while (argMatcher.find()) {
-                    parts.add(result.substring(0, argMatcher.start()));
-                    argIndices.add(Integer.parseInt(argMatcher.group().substring(1)) - 1);
+        var macroHasher = Hashing.murmur3_128().newHasher();
+        new TreeMap<>(macros).forEach((macro, replacement) -> {
+            macroHasher.putString(macro, StandardCharsets.UTF_8).putInt(macro.length());
+            macroHasher.putString(replacement, StandardCharsets.UTF_8).putInt(replacement.length());
+        });
+        this.macroHash = macroHasher.hash().asLong();
 
-                    result.delete(0, argMatcher.end());
-                    argMatcher.reset();
-                }
+        this.macroExpander = new MacroExpander(id, macros);
+        this.entryIndices.defaultReturnValue(-1);
+    }
 
-                parts.add(result.toString());
-                this.macros.put(
-                        Pattern.compile(Pattern.quote(macro) + "\\(" + Stream.generate(() -> "(.*)").limit(argCount).collect(Collectors.joining(",")) + "\\)"),
-                        new Macro(parts, argIndices)
-                );
-            } else {
-                this.zeroArgMacros.put(macro, replacement);
-            }
-        });
+    /**
+     * @deprecated Use the constructor which also takes {@code prefetchEntries}
+     */
+    @Deprecated
+    public Book(
+            Identifier id,
+            @Nullable Identifier extend,
+            @Nullable Identifier texture,
+            @Nullable Identifier dynamicBookModel,
+            @Nullable SoundEvent openSound,
+            @Nullable SoundEvent flippingSound,
+            @Nullable Identifier introEntry,
+            boolean displayUnreadEntryNotifications,
+            boolean displayCompletion,
+            Map<String, String> macros
+    ) {
+        this(id, extend, texture, dynamicBookModel, openSound, flippingSound, introEntry, displayUnreadEntryNotifications, displayCompletion, false, macros);
     }
 
     public Identifier id() {
@@ -122,6 +132,14 @@ public final class Book {
         return this.displayUnreadEntryNotifications;
     }
 
+    /**
+     * @return Whether entries which are likely to be opened next should
+     * be parsed in the background while the player reads this book
+     */
+    public boolean prefetchEntries() {
+        return this.prefetchEntries;
+    }
+
     public Collection<Entry> entries() {
         return this.entriesView;
     }
@@ -141,18 +159,7 @@ public final class Book {
     }
 
     public @Nullable Entry entryByAssociatedItem(ItemStack associatedStack) {
-        var candidates = this.entriesByAssociatedItem.get(associatedStack.getItem());
-        for (var candidateEntry : candidates) {
-            for (var candidateAssociatedStack : candidateEntry.associatedItems()) {
-                if (candidateAssociatedStack.getItem() != associatedStack.getItem()) continue;
-
-                if (NbtHelper.matches(candidateAssociatedStack.getNbt(), associatedStack.getNbt(), true)) {
-                    return candidateEntry;
-                }
-            }
-        }
-
-        return null;
+        return AssociatedItemIndex.lookup(this, associatedStack);
     }
 
     public @Nullable Collection<Entry> entriesByCategory(Category category) {
@@ -163,18 +170,24 @@ public final class Book {
     }
 
     public @Nullable Collection<Entry> descendantEntriesByCategory(Category category) {
-        var entries = new ArrayList<Entry>();
-        for (var candidate : this.categories.values()) {
-            if (candidate == category || Objects.equals(candidate.parent(), category.id())) {
-                var possibleEntries = this.entriesByCategory(candidate);
-                if (possibleEntries != null) entries.addAll(possibleEntries);
-            }
-        }
+        var node = this.categoryNodes.get(category.id());
+        if (node == null || node.totalEntries == 0) return null;
+
+        var entries = new ArrayList<Entry>(node.totalEntries);
+        this.collectEntries(node, entries);
 
-        if (entries.isEmpty()) return null;
         return entries;
     }
 
+    private void collectEntries(CategoryNode node, List<Entry> into) {
+        var entries = this.entriesByCategory.get(node.category);
+        if (entries != null) into.addAll(entries);
+
+        for (var child : node.children) {
+            this.collectEntries(child, into);
+        }
+    }
+
     public Collection<Category> categories() {
         return this.categoriesView;
     }
@@ -184,15 +197,7 @@ public final class Book {
     }
 
     public boolean shouldDisplayCategory(Category category, ClientPlayerEntity player) {
-        var entries = this.descendantEntriesByCategory(category);
-        if (entries == null) return false;
-
-        boolean anyVisible = false;
-        for (var entry : entries) {
-            if (entry.canPlayerView(player)) anyVisible = true;
-        }
-
-        return anyVisible;
+        return this.countVisibleEntries(category) > 0;
     }
 
     public boolean shouldDisplayUnreadNotification(Entry entry) {
@@ -200,17 +205,36 @@ public final class Book {
     }
 
     public boolean shouldDisplayUnreadNotification(Category category, ClientPlayerEntity player) {
-        if (!this.displayUnreadEntryNotifications) return false;
+        return this.displayUnreadEntryNotifications && this.countUnreadEntries(category) > 0;
+    }
 
-        var entries = this.descendantEntriesByCategory(category);
-        if (entries == null) return false;
+    /**
+     * @return The amount of entries in {@code category}
+     * and all of its subcategories, at any depth
+     */
+    public int countEntries(Category category) {
+        var node = this.categoryNodes.get(category.id());
+        return node != null ? node.totalEntries : 0;
+    }
 
-        for (var entry : entries) {
-            if (!entry.canPlayerView(player)) continue;
-            if (!LavenderClientStorage.wasEntryViewed(this, entry)) return true;
-        }
+    /**
+     * @return The amount of entries in {@code category} and all of
+     * its subcategories which are visible to the client player
+     */
+    public int countVisibleEntries(Category category) {
+        var node = this.categoryNodes.get(category.id());
+        return node != null ? node.visibleEntries : 0;
+    }
 
-        return false;
+    /**
+     * @return The amount of entries in {@code category} and all of its subcategories
+     * which are visible to the client player and have not been viewed yet
+     */
+    public int countUnreadEntries(Category category) {
+        this.refreshViewedEntries();
+
+        var node = this.categoryNodes.get(category.id());
+        return node != null ? node.unreadEntries : 0;
     }
 
     public @Nullable Entry landingPage() {
@@ -233,76 +257,161 @@ public final class Book {
         return this.flippingSound;
     }
 
-    public int countVisibleEntries(ClientPlayerEntity player) {
-        int visible = 0;
-        for (var entry : this.entriesById.values()) {
-            if (!entry.canPlayerView(player)) continue;
-            visible++;
-        }
+    /**
+     * @return {@code true} if the client player has completed all advancements
+     * required by {@code entry}. This is answered from a visibility set which
+     * is only recomputed when the client receives advancement progress
+     */
+    public boolean isVisible(Entry entry) {
+        if (this.resolvedExtend != null) return this.resolvedExtend.isVisible(entry);
 
-        return visible;
+        int index = this.entryIndices.getInt(entry.id());
+        return index != -1 && this.entriesById.get(entry.id()) == entry && this.visibleEntries.get(index);
     }
 
-    // --- construction-related methods ---
-
-    String expandMacros(Identifier entry, String input) {
-        var builder = new StringBuilder(input);
-
-        int scans = 0;
-        boolean anyExpansions = true;
-        while (scans < 1000  && anyExpansions) {
-            anyExpansions = false;
-
-            for (var pattern : this.zeroArgMacros.keySet()) {
-                int replaceIndex = builder.indexOf(pattern);
-                while (replaceIndex != -1) {
-                    var replacement = this.zeroArgMacros.get(pattern);
-                    anyExpansions = true;
+    /**
+     * @return The amount of entries in this book which
+     * are currently visible to the client player
+     */
+    public int visibleEntryCount() {
+        return this.resolvedExtend != null ? this.resolvedExtend.visibleEntryCount() : this.visibleEntryCount;
+    }
 
-                    builder.replace(replaceIndex, replaceIndex + pattern.length(), replacement);
-                    replaceIndex = builder.indexOf(pattern, replaceIndex + replacement.length());
-                }
-            }
+    /**
+     * @return A counter which is incremented whenever any
+     * entry of this book becomes visible or hidden
+     */
+    public int visibilityVersion() {
+        return this.resolvedExtend != null ? this.resolvedExtend.visibilityVersion() : this.visibilityVersion;
+    }
 
-            for (var pattern : this.macros.keySet()) {
-                var replacement = this.macros.get(pattern);
-                var matcher = pattern.matcher(builder);
+    public int countVisibleEntries(ClientPlayerEntity player) {
+        return this.visibleEntryCount();
+    }
 
-                while (scans < 1000 && matcher.find()) {
-                    scans++;
-                    anyExpansions = true;
+    /**
+     * @return The full-text search index over this book's entries, or
+     * {@code null} if it is not available yet because it is still being built
+     */
+    public @Nullable EntrySearchIndex searchIndex() {
+        return this.resolvedExtend != null ? this.resolvedExtend.searchIndex() : this.searchIndex;
+    }
 
-                    var args = new ArrayList<String>();
-                    for (int i = 1; i <= matcher.groupCount(); i++) {
-                        args.add(matcher.group(i));
-                    }
+    // --- construction-related methods ---
 
-                    builder.replace(matcher.start(), matcher.end(), replacement.apply(args));
-                    matcher.reset();
-                }
-            }
-        }
+    /**
+     * @return A hash of this book's macro table, used for determining
+     * whether cached macro-expanded content is still valid
+     */
+    long macroHash() {
+        return this.macroHash;
+    }
 
-        if (scans >= 1000) {
+    String expandMacros(Identifier entry, String input) {
+        try {
+            return this.macroExpander.expand(input);
+        } catch (MacroExpander.CircularMacroException e) {
             Lavender.LOGGER.warn(
-                    "Preprocessing of entry {} in book {} failed: Macro expansion proceeded for over 1000 scans, a circular macro invocation is likely",
+                    "Preprocessing of entry {} in book {} failed: Macro '{}' is part of a circular macro invocation",
                     entry,
-                    this.id
+                    this.id,
+                    e.macro
             );
 
             return """
                     {red}**Entry processing failed:**{}
                                         
                                         
-                    Macro expansion proceeded for over 1000 scans without reaching
-                    a result - this is almost definitely due to a circular macro invocation
-                    """;
+                    Macro '%s' could not be expanded
+                    because it invokes itself, either directly or through other macros
+                    """.formatted(e.macro);
+        }
+    }
+
+    void updateEntryVisibility(@Nullable ClientAdvancementManager advancementHandler) {
+        for (var entry : this.entriesById.values()) {
+            int entryIndex = this.entryIndices.getInt(entry.id());
+            this.setEntryState(entry, entryIndex, advancementHandler != null && entry.isUnlocked(advancementHandler), this.viewedEntries.get(entryIndex));
+        }
+    }
+
+    void onEntryViewed(Entry entry) {
+        if (this.resolvedExtend != null) {
+            this.resolvedExtend.onEntryViewed(entry);
         } else {
-            return builder.toString();
+            this.refreshViewedEntries();
+
+            int entryIndex = this.entryIndices.getInt(entry.id());
+            if (entryIndex == -1) return;
+
+            this.setEntryState(entry, entryIndex, this.visibleEntries.get(entryIndex), true);
+        }
+    }
+
+    /**
+     * Viewed entries are tracked per world, so the
+     * viewed state must be re-read whenever the world changes
+     */
+    private void refreshViewedEntries() {
+        if (this.resolvedExtend != null || Objects.equals(this.viewedEntriesWorld, LavenderClient.currentWorldId())) return;
+        this.viewedEntriesWorld = LavenderClient.currentWorldId();
+
+        for (var entry : this.entriesById.values()) {
+            int entryIndex = this.entryIndices.getInt(entry.id());
+            this.setEntryState(entry, entryIndex, this.visibleEntries.get(entryIndex), LavenderClientStorage.wasEntryViewed(this, entry));
+        }
+    }
+
+    /**
+     * Update the visibility and viewed state of {@code entry} and
+     * propagate the resulting changes up its category tree
+     */
+    private void setEntryState(Entry entry, int entryIndex, boolean visible, boolean viewed) {
+        boolean wasVisible = this.visibleEntries.get(entryIndex);
+        boolean wasUnread = wasVisible && !this.viewedEntries.get(entryIndex);
+        boolean unread = visible && !viewed;
+
+        this.visibleEntries.set(entryIndex, visible);
+        this.viewedEntries.set(entryIndex, viewed);
+
+        if (wasVisible != visible) {
+            this.visibleEntryCount += visible ? 1 : -1;
+            this.visibilityVersion++;
         }
+        this.propagateCounts(entry.category(), 0, Boolean.compare(visible, wasVisible), Boolean.compare(unread, wasUnread));
     }
 
-    void setLandingPage(@NotNull Entry landingPage) {
+    private void propagateCounts(@Nullable Identifier categoryId, int total, int visible, int unread) {
+        if (categoryId == null || (total == 0 && visible == 0 && unread == 0)) return;
+
+        for (var node = this.categoryNodes.get(categoryId); node != null; node = node.parent) {
+            node.totalEntries += total;
+            node.visibleEntries += visible;
+            node.unreadEntries += unread;
+        }
+    }
+
+    /**
+     * Rebuild the search index of this book off-thread. Until the new index is
+     * done, the previous one (if any) keeps serving queries
+     */
+    void rebuildSearchIndex() {
+        if (this.resolvedExtend != null) return;
+
+        int generation = ++this.searchIndexGeneration;
+        var entries = List.copyOf(this.entriesById.values());
+
+        CompletableFuture.supplyAsync(() -> EntrySearchIndex.build(entries), Util.getMainWorkerExecutor()).whenCompleteAsync((index, throwable) -> {
+            if (throwable != null) {
+                Lavender.LOGGER.warn("Failed to build search index of book {}", this.id, throwable);
+                return;
+            }
+
+            if (generation == this.searchIndexGeneration) this.searchIndex = index;
+        }, MinecraftClient.getInstance());
+    }
+
+    void setLandingPage(@Nullable Entry landingPage) {
         this.landingPage = landingPage;
     }
 
@@ -310,18 +419,58 @@ public final class Book {
         if (this.resolvedExtend != null) {
             this.resolvedExtend.addEntry(entry);
         } else {
+            if (entry.category() != null && !this.categories.containsKey(entry.category())) {
+                throw new RuntimeException("Could not load entry '" + entry.id() + "' because category '" + entry.category() + "' was not found in book '" + this.effectiveId() + "'");
+            }
+
+            this.removeEntry(entry.id());
+            this.refreshViewedEntries();
+
             this.entriesById.put(entry.id(), entry);
-            entry.associatedItems().forEach(stack -> this.entriesByAssociatedItem.put(stack.getItem(), entry));
+            AssociatedItemIndex.invalidate();
 
-            if (this.categories.containsKey(entry.category())) {
+            if (entry.category() != null) {
                 this.entriesByCategory
                         .computeIfAbsent(this.categories.get(entry.category()), $ -> new ArrayList<>())
                         .add(entry);
-            } else if (entry.category() == null) {
-                this.orphanedEntries.add(entry);
             } else {
-                throw new RuntimeException("Could not load entry '" + entry.id() + "' because category '" + entry.category() + "' was not found in book '" + this.effectiveId() + "'");
+                this.orphanedEntries.add(entry);
             }
+
+            // reuse the indices of removed entries so that the
+            // bitsets do not grow across incremental reloads
+            int entryIndex = !this.freeEntryIndices.isEmpty() ? this.freeEntryIndices.popInt() : this.nextEntryIndex++;
+            this.entryIndices.put(entry.id(), entryIndex);
+            this.propagateCounts(entry.category(), 1, 0, 0);
+
+            var networkHandler = MinecraftClient.getInstance().getNetworkHandler();
+            this.setEntryState(
+                    entry,
+                    entryIndex,
+                    networkHandler != null && entry.isUnlocked(networkHandler.getAdvancementHandler()),
+                    LavenderClientStorage.wasEntryViewed(this, entry)
+            );
+        }
+    }
+
+    void removeEntry(Identifier entryId) {
+        if (this.resolvedExtend != null) {
+            this.resolvedExtend.removeEntry(entryId);
+        } else {
+            var entry = this.entriesById.remove(entryId);
+            if (entry == null) return;
+
+            int entryIndex = this.entryIndices.removeInt(entryId);
+            this.setEntryState(entry, entryIndex, false, false);
+            this.propagateCounts(entry.category(), -1, 0, 0);
+            this.freeEntryIndices.push(entryIndex);
+
+            AssociatedItemIndex.invalidate();
+
+            var categoryEntries = this.entriesByCategory.get(this.categories.get(entry.category()));
+            if (categoryEntries != null) categoryEntries.remove(entry);
+
+            this.orphanedEntries.remove(entry);
         }
     }
 
@@ -330,6 +479,40 @@ public final class Book {
             this.resolvedExtend.addCategory(category);
         } else {
             this.categories.put(category.id(), category);
+
+            var node = this.categoryNodes.computeIfAbsent(category.id(), $ -> new CategoryNode(category));
+            node.category = category;
+
+            if (category.parent() != null) {
+                var parent = this.categoryNodes.get(category.parent());
+                if (parent != null) this.linkCategory(node, parent);
+            }
+
+            for (var candidate : this.categoryNodes.values()) {
+                if (candidate.parent == null && category.id().equals(candidate.category.parent())) {
+                    this.linkCategory(candidate, node);
+                }
+            }
+        }
+    }
+
+    private void linkCategory(CategoryNode child, CategoryNode parent) {
+        for (var ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+            if (ancestor != child) continue;
+
+            Lavender.LOGGER.warn("Category '{}' in book {} is its own ancestor, not attaching it to parent '{}'", child.category.id(), this.id, parent.category.id());
+            return;
+        }
+
+        if (child.parent != null) child.parent.children.remove(child);
+
+        child.parent = parent;
+        parent.children.add(child);
+
+        for (var ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+            ancestor.totalEntries += child.totalEntries;
+            ancestor.visibleEntries += child.visibleEntries;
+            ancestor.unreadEntries += child.unreadEntries;
         }
     }
 
@@ -340,6 +523,10 @@ public final class Book {
         return this.resolvedExtend != null;
     }
 
+    boolean isExtension() {
+        return this.extend != null;
+    }
+
     Identifier effectiveId() {
         return this.resolvedExtend != null ? this.resolvedExtend.effectiveId() : this.id;
     }
@@ -349,18 +536,21 @@ public final class Book {
         Function<Sizing, Component> iconFactory();
     }
 
-    public record Macro(List<String> parts, IntList argIndices) {
-        String apply(List<String> args) {
-            var result = new StringBuilder();
-            for (int i = 0; i < this.argIndices.size(); i++) {
-                result.append(this.parts.get(i));
-
-                var argIndex = this.argIndices.getInt(i);
-                result.append(argIndex - 1 < args.size() ? args.get(i) : "");
-            }
-
-            result.append(this.parts.get(this.parts.size() - 1));
-            return result.toString();
+    /**
+     * A category in this book's category tree. All counts
+     * aggregate the category itself and every descendant
+     */
+    private static final class CategoryNode {
+        private Category category;
+        private @Nullable CategoryNode parent = null;
+        private final List<CategoryNode> children = new ArrayList<>();
+
+        private int totalEntries = 0;
+        private int visibleEntries = 0;
+        private int unreadEntries = 0;
+
+        private CategoryNode(Category category) {
+            this.category = category;
         }
     }
 }
@@ -0,0 +1,411 @@
+package io.wispforest.lavender.book;
+
+import io.wispforest.lavender.Lavender;
+import net.fabricmc.loader.api.FabricLoader;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.Util;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * A persistent cache of macro-expanded markdown content and parsed frontmatter,
+ * stored in a versioned binary file under the game directory
+ * <p>
+ * Every record is keyed by the location of the resource it was produced from, the
+ * {@linkplain ResourceVersions version} of that resource, the hash of the owning book's macro
+ * table and the active language. On startup, the newest cache file is memory-mapped and only
+ * the keys are read eagerly - frontmatter and content are decoded from the mapping when a
+ * record is actually used
+ * <p>
+ * Every save writes a new file for the next generation and moves all live records onto
+ * its mapping, so that freshly parsed content does not have to stay on the heap. Since
+ * files are never overwritten, records referenced by entries that are still in use
+ * remain readable - stale generations are deleted once they are no longer needed.
+ * Where mapped files cannot be deleted, at most {@link #MAX_UNDELETED_FILES} stale
+ * generations are kept around before saving is suspended until they can be removed
+ */
+final class BookContentCache {
+
+    private static final int MAGIC = 0x4C564243; // LVBC
+    private static final int FORMAT_VERSION = 3;
+
+    private static final Path CACHE_DIRECTORY = FabricLoader.getInstance().getGameDir().resolve(".lavender-cache");
+    private static final String FILE_PREFIX = "book_content_", FILE_SUFFIX = ".bin", TEMP_SUFFIX = ".tmp";
+    private static final int MAX_UNDELETED_FILES = 2;
+
+    private static final Map<Identifier, CachedMarkdown> PERSISTED = new HashMap<>();
+    private static final Map<Identifier, CachedMarkdown> LIVE = new ConcurrentHashMap<>();
+    private static final List<Path> UNDELETED_FILES = new ArrayList<>();
+
+    private static @Nullable Path loadedFile = null;
+    private static long loadedGeneration = 0;
+
+    static {
+        var staleFiles = new ArrayList<Path>();
+
+        try (var files = Files.list(CACHE_DIRECTORY)) {
+            files.forEach(file -> {
+                if (isTempFile(file)) {
+                    staleFiles.add(file);
+                    return;
+                } else if (!isCacheFile(file)) {
+                    return;
+                }
+
+                long generation = readGeneration(file);
+                if (generation > loadedGeneration) {
+                    if (loadedFile != null) staleFiles.add(loadedFile);
+
+                    loadedFile = file;
+                    loadedGeneration = generation;
+                } else {
+                    staleFiles.add(file);
+                }
+            });
+        } catch (NoSuchFileException ignored) {
+        } catch (IOException e) {
+            Lavender.LOGGER.warn("Could not list Lavender book content cache files", e);
+        }
+
+        // nothing has been mapped yet, so
+        // these can always be deleted
+        staleFiles.forEach(BookContentCache::tryDelete);
+
+        if (loadedFile != null) {
+            try {
+                readFile(loadedFile, PERSISTED);
+            } catch (IOException | RuntimeException e) {
+                PERSISTED.clear();
+                Lavender.LOGGER.warn("Could not read Lavender book content cache, discarding it", e);
+            }
+        }
+    }
+
+    private BookContentCache() {}
+
+    /**
+     * @return The cached markdown produced from the resource at {@code location}, provided
+     * its contents, the macro table of the book and the active language are all unchanged
+     */
+    static @Nullable CachedMarkdown get(Identifier location, long resourceHash, long macroHash, String language) {
+        var cached = LIVE.get(location);
+        if (cached == null || !cached.matches(resourceHash, macroHash, language)) {
+            cached = PERSISTED.get(location);
+        }
+
+        if (cached == null || !cached.matches(resourceHash, macroHash, language)) return null;
+
+        LIVE.put(location, cached);
+        return cached;
+    }
+
+    static CachedMarkdown put(Identifier location, long resourceHash, long macroHash, String language, MarkdownMeta meta, String content) {
+        var cached = new CachedMarkdown(resourceHash, macroHash, language, new Stored<>(() -> meta), new Stored<>(() -> content));
+        LIVE.put(location, cached);
+
+        return cached;
+    }
+
+    /**
+     * Begin tracking a new load. Full loads start from an empty set of live records so that the
+     * saved cache only contains what the current library uses, incremental ones keep everything
+     */
+    static void beginLoad(boolean incremental) {
+        if (!incremental) LIVE.clear();
+    }
+
+    /**
+     * Asynchronously write all records used by the current library to disk
+     * and move them onto the mapping of the written file
+     */
+    static void save() {
+        var snapshot = new HashMap<>(LIVE);
+        Util.getIoWorkerExecutor().execute(() -> {
+            synchronized (BookContentCache.class) {
+                // stale generations may only become deletable once their
+                // mapping has been collected, so retry them on every save
+                UNDELETED_FILES.removeIf(BookContentCache::tryDelete);
+                if (UNDELETED_FILES.size() >= MAX_UNDELETED_FILES) {
+                    Lavender.LOGGER.warn("Not saving Lavender book content cache, {} previous cache files could not be deleted yet", UNDELETED_FILES.size());
+                    return;
+                }
+
+                try {
+                    var previousFile = loadedFile;
+                    var file = CACHE_DIRECTORY.resolve(FILE_PREFIX + (loadedGeneration + 1) + FILE_SUFFIX);
+
+                    writeFile(file, loadedGeneration + 1, snapshot);
+                    loadedFile = file;
+                    loadedGeneration++;
+
+                    var written = new HashMap<Identifier, CachedMarkdown>();
+                    readFile(file, written);
+
+                    snapshot.forEach((location, cached) -> {
+                        var stored = written.get(location);
+                        if (stored == null) return;
+
+                        cached.meta().moveTo(stored.meta());
+                        cached.content().moveTo(stored.content());
+                    });
+
+                    // on platforms which do not permit deleting mapped files this
+                    // fails, the file is then retried later or on the next startup
+                    if (previousFile != null && !tryDelete(previousFile)) UNDELETED_FILES.add(previousFile);
+                } catch (IOException e) {
+                    Lavender.LOGGER.warn("Failed to save Lavender book content cache", e);
+                }
+            }
+        });
+    }
+
+    // --- file format ---
+
+    private static boolean isCacheFile(Path file) {
+        var name = file.getFileName().toString();
+        return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX);
+    }
+
+    private static boolean isTempFile(Path file) {
+        var name = file.getFileName().toString();
+        return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX + TEMP_SUFFIX);
+    }
+
+    /**
+     * @return {@code true} if {@code file} no longer exists
+     */
+    private static boolean tryDelete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return The generation stored in the header of the given file,
+     * or {@code 0} if the file is not a valid cache file
+     */
+    private static long readGeneration(Path file) {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var header = ByteBuffer.allocate(16);
+            while (header.hasRemaining() && channel.read(header) != -1) {}
+
+            header.flip();
+            if (header.remaining() < 16 || header.getInt() != MAGIC || header.getInt() != FORMAT_VERSION) return 0;
+
+            return header.getLong();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static void readFile(Path file, Map<Identifier, CachedMarkdown> into) throws IOException {
+        ByteBuffer buffer;
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        // skip magic, version and generation,
+        // those have already been validated
+        buffer.position(16);
+        int recordCount = buffer.getInt();
+
+        for (int i = 0; i < recordCount; i++) {
+            var location = new Identifier(readString(buffer));
+            long resourceHash = buffer.getLong();
+            long macroHash = buffer.getLong();
+            var language = readString(buffer);
+
+            var meta = skipMeta(buffer);
+            var content = skipString(buffer);
+
+            into.put(location, new CachedMarkdown(resourceHash, macroHash, language, new Stored<>(meta), new Stored<>(content)));
+        }
+    }
+
+    /**
+     * Write {@code records} to a temporary file and move it into place once it is complete,
+     * so that an interrupted write never leaves a partial file under a valid cache file name
+     */
+    private static void writeFile(Path file, long generation, Map<Identifier, CachedMarkdown> records) throws IOException {
+        Files.createDirectories(CACHE_DIRECTORY);
+
+        var tempFile = file.resolveSibling(file.getFileName() + TEMP_SUFFIX);
+        try (var output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            output.writeLong(generation);
+            output.writeInt(records.size());
+
+            for (var record : records.entrySet()) {
+                var cached = record.getValue();
+
+                writeString(output, record.getKey().toString());
+                output.writeLong(cached.resourceHash());
+                output.writeLong(cached.macroHash());
+                writeString(output, cached.language());
+                writeMeta(output, cached.meta().get());
+                writeString(output, cached.content().get());
+            }
+        } catch (IOException e) {
+            tryDelete(tempFile);
+            throw e;
+        }
+
+        try {
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        var bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Skip over the string at the current position of {@code buffer}
+     * and return a supplier which lazily decodes it from the mapping
+     */
+    private static Supplier<String> skipString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        int offset = buffer.position();
+        buffer.position(offset + length);
+
+        return () -> {
+            var bytes = new byte[length];
+            buffer.get(offset, bytes);
+
+            return new String(bytes, StandardCharsets.UTF_8);
+        };
+    }
+
+    /**
+     * Skip over the frontmatter at the current position of {@code buffer}
+     * and return a supplier which lazily decodes it from the mapping
+     */
+    private static Supplier<MarkdownMeta> skipMeta(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        int offset = buffer.position();
+        buffer.position(offset + length);
+
+        return () -> {
+            var metaBuffer = buffer.duplicate().position(offset);
+
+            var title = readString(metaBuffer);
+            var icon = readNullableString(metaBuffer);
+            var iconSprite = readNullableString(metaBuffer);
+            boolean secret = metaBuffer.get() != 0;
+            int ordinal = metaBuffer.getInt();
+            var category = readNullableString(metaBuffer);
+            var parent = readNullableString(metaBuffer);
+            var associatedItems = readStringList(metaBuffer);
+            var requiredAdvancements = readStringList(metaBuffer);
+            var conditions = readNullableString(metaBuffer);
+
+            return new MarkdownMeta(title, icon, iconSprite, secret, ordinal, category, parent, associatedItems, requiredAdvancements, conditions);
+        };
+    }
+
+    private static @Nullable String readNullableString(ByteBuffer buffer) {
+        return buffer.get() != 0 ? readString(buffer) : null;
+    }
+
+    private static List<String> readStringList(ByteBuffer buffer) {
+        var strings = new String[buffer.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readString(buffer);
+        }
+
+        return List.of(strings);
+    }
+
+    private static void writeMeta(DataOutputStream output, MarkdownMeta meta) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var metaOutput = new DataOutputStream(bytes)) {
+            writeString(metaOutput, meta.title());
+            writeNullableString(metaOutput, meta.icon());
+            writeNullableString(metaOutput, meta.iconSprite());
+            metaOutput.writeBoolean(meta.secret());
+            metaOutput.writeInt(meta.ordinal());
+            writeNullableString(metaOutput, meta.category());
+            writeNullableString(metaOutput, meta.parent());
+            writeStringList(metaOutput, meta.associatedItems());
+            writeStringList(metaOutput, meta.requiredAdvancements());
+            writeNullableString(metaOutput, meta.conditions());
+        }
+
+        output.writeInt(bytes.size());
+        bytes.writeTo(output);
+    }
+
+    private static void writeNullableString(DataOutputStream output, @Nullable String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) writeString(output, value);
+    }
+
+    private static void writeStringList(DataOutputStream output, List<String> values) throws IOException {
+        output.writeInt(values.size());
+        for (var value : values) {
+            writeString(output, value);
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    record CachedMarkdown(long resourceHash, long macroHash, String language, Stored<MarkdownMeta> meta, Stored<String> content) {
+        boolean matches(long resourceHash, long macroHash, String language) {
+            return this.resourceHash == resourceHash && this.macroHash == macroHash && this.language.equals(language);
+        }
+    }
+
+    /**
+     * A value stored in the cache, which is decoded on every call to {@link #get()}.
+     * Its backing storage changes once the record it belongs to has been written to disk
+     */
+    static final class Stored<T> implements Supplier<T> {
+
+        private volatile Supplier<T> source;
+
+        private Stored(Supplier<T> source) {
+            this.source = source;
+        }
+
+        private void moveTo(Stored<T> other) {
+            this.source = other.source;
+        }
+
+        @Override
+        public T get() {
+            return this.source.get();
+        }
+    }
+}
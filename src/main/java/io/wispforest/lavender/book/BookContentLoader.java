@@ -5,6 +5,7 @@ import com.google.gson.*;
 import com.mojang.brigadier.StringReader;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import io.wispforest.lavender.Lavender;
+import io.wispforest.lavender.md.ParsedMarkdownCache;
 import io.wispforest.owo.ui.component.Components;
 import io.wispforest.owo.ui.container.Containers;
 import io.wispforest.owo.ui.core.Component;
@@ -17,26 +18,34 @@ import net.minecraft.command.argument.ItemStringReader;
 import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.registry.Registries;
-import net.minecraft.registry.RegistryKeys;
-import net.minecraft.registry.entry.RegistryEntry;
 import net.minecraft.registry.tag.TagKey;
 import net.minecraft.resource.*;
 import net.minecraft.util.Identifier;
-import net.minecraft.util.JsonHelper;
-import org.apache.commons.io.IOUtils;
+import net.minecraft.util.Util;
+import net.minecraft.util.profiler.Profiler;
 import org.jetbrains.annotations.Nullable;
 
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-public class BookContentLoader implements SynchronousResourceReloader, IdentifiableResourceReloadListener {
+public class BookContentLoader implements IdentifiableResourceReloadListener {
 
-    private static final ResourceFinder ENTRY_FINDER = new ResourceFinder("lavender/entries", ".md");
-    private static final ResourceFinder CATEGORY_FINDER = new ResourceFinder("lavender/categories", ".md");
+    static final ResourceFinder ENTRY_FINDER = new ResourceFinder("lavender/entries", ".md");
+    static final ResourceFinder CATEGORY_FINDER = new ResourceFinder("lavender/categories", ".md");
     private static final Gson GSON = new GsonBuilder().setLenient().disableHtmlEscaping().create();
 
+    private static final Set<Identifier> REFERENCED_TAGS = ConcurrentHashMap.newKeySet();
+    private static final Map<String, ItemStack> PARSED_STACKS = new ConcurrentHashMap<>();
+    private static final Map<EntryKey, Identifier> LOADED_ENTRIES = new HashMap<>();
+
     public static void initialize() {
         ResourceManagerHelper.get(ResourceType.CLIENT_RESOURCES).registerReloadListener(new BookContentLoader());
     }
@@ -47,177 +56,385 @@ public class BookContentLoader implements SynchronousResourceReloader, Identifia
     }
 
     @Override
-    public void reload(ResourceManager manager) {
-        reloadContents(manager);
+    public CompletableFuture<Void> reload(Synchronizer synchronizer, ResourceManager manager, Profiler prepareProfiler, Profiler applyProfiler, Executor prepareExecutor, Executor applyExecutor) {
+        return prepareContents(manager, prepareExecutor)
+                .thenCompose(synchronizer::whenPrepared)
+                .thenAcceptAsync(BookContentLoader::applyContents, applyExecutor);
     }
 
     public static void reloadContents(ResourceManager manager) {
-        var entries = findResources(manager, ENTRY_FINDER);
-        var categories = findResources(manager, CATEGORY_FINDER);
+        applyContents(prepareContents(manager, Util.getMainWorkerExecutor()).join());
+    }
 
-        for (var book : BookLoader.allBooks()) {
-            forResourceOfBook(categories, book, "category", (identifier, resource) -> {
-                var markdown = parseMarkdown(book, identifier, resource);
-                if (markdown == null) return;
+    /**
+     * Read, macro-expand and parse all category and entry resources of
+     * every loaded book in parallel on {@code executor}. The result only
+     * contains fully constructed elements, adding them to their respective
+     * books is left to {@link #applyContents(PreparedContents)}
+     * <p>
+     * If the book loader kept the loaded books, the library is fingerprinted first. Depending
+     * on how it differs from the loaded library, nothing is loaded, only entries whose backing
+     * resource was added or changed are parsed (and entries whose resource disappeared or changed
+     * are scheduled for removal), or everything is loaded into fresh copies of the books
+     */
+    private static CompletableFuture<PreparedContents> prepareContents(ResourceManager manager, Executor executor) {
+        var pendingReload = BookLoader.consumePendingContentReload();
+        var language = MinecraftClient.getInstance().getLanguageManager().getLanguage();
+        var languages = MinecraftClient.getInstance().getLanguageManager().getAllLanguages().keySet();
+        var loadedBooks = List.copyOf(BookLoader.allBooks());
+
+        // tags may be rebound on the client thread at any time, so
+        // the workers below resolve them from this snapshot instead
+        var itemTags = LibraryFingerprint.captureTags(Registries.ITEM.streamTags().map(TagKey::id).collect(Collectors.toSet()));
+
+        return CompletableFuture.supplyAsync(() -> {
+            var versions = new ResourceVersions();
+            var resourceContents = new HashMap<Identifier, byte[]>();
+            var fingerprint = pendingReload.kind() != BookLoader.PendingContentReload.Kind.UNTRACKED
+                    ? LibraryFingerprint.capture(manager, pendingReload.language(), pendingReload.tags(), versions, resourceContents, BookLoader.BOOK_FINDER, ENTRY_FINDER, CATEGORY_FINDER)
+                    : null;
+
+            boolean booksUnchanged = pendingReload.kind() == BookLoader.PendingContentReload.Kind.BOOKS_UNCHANGED;
+            var previous = pendingReload.previous();
+
+            if (booksUnchanged && fingerprint != null && fingerprint.equals(previous)) {
+                return CompletableFuture.completedFuture(PreparedContents.unchanged(fingerprint));
+            }
 
-                var parentCategory = JsonHelper.getString(markdown.meta, "parent", null);
-                var parentCategoryId = parentCategory != null
-                        ? parentCategory.indexOf(':') > 0 ? Identifier.tryParse(parentCategory) : new Identifier(identifier.getNamespace(), parentCategory)
-                        : null;
+            boolean incremental = booksUnchanged && fingerprint != null && fingerprint.permitsIncrementalReload(previous);
+            var replacementBooks = booksUnchanged && !incremental ? pendingReload.candidateBooks() : null;
+            var books = replacementBooks != null ? replacementBooks.values() : loadedBooks;
 
-                book.addCategory(new Category(
-                        identifier,
-                        parentCategoryId,
-                        JsonHelper.getString(markdown.meta, "title"),
-                        getIcon(markdown.meta),
-                        JsonHelper.getBoolean(markdown.meta, "secret", false),
-                        JsonHelper.getInt(markdown.meta, "ordinal", Integer.MAX_VALUE),
-                        markdown.content
-                ));
-            });
-        }
+            var changedResources = incremental ? fingerprint.changedResources(previous) : Set.<Identifier>of();
 
-        for (var book : BookLoader.allBooks()) {
-            forResourceOfBook(entries, book, "entry", (identifier, resource) -> {
-                var markdown = parseMarkdown(book, identifier, resource);
-                if (markdown == null) return;
+            if (!incremental) {
+                REFERENCED_TAGS.clear();
+                PARSED_STACKS.clear();
+            }
+            BookContentCache.beginLoad(incremental);
 
-                var category = JsonHelper.getString(markdown.meta, "category", null);
-                var categoryId = category != null
-                        ? category.indexOf(':') > 0 ? Identifier.tryParse(category) : new Identifier(identifier.getNamespace(), category)
-                        : null;
+            var sources = new MarkdownSources(fingerprint, versions, resourceContents, itemTags, language);
 
-                var title = JsonHelper.getString(markdown.meta, "title");
-                var icon = getIcon(markdown.meta);
-                var secret = JsonHelper.getBoolean(markdown.meta, "secret", false);
-                var ordinal = JsonHelper.getInt(markdown.meta, "ordinal", Integer.MAX_VALUE);
+            var entries = indexResources(manager, ENTRY_FINDER, language, languages);
+            var categories = !incremental ? indexResources(manager, CATEGORY_FINDER, language, languages) : Map.<Identifier, Map<Identifier, LocatedResource>>of();
 
-                var associatedItems = new ImmutableSet.Builder<ItemStack>();
-                for (var itemElement : JsonHelper.getArray(markdown.meta, "associated_items", new JsonArray())) {
-                    associatedItems.addAll(itemsFromString(itemElement.getAsString()));
-                }
+            var categoryTasks = new ArrayList<CompletableFuture<@Nullable PreparedElement<Category>>>();
+            var entryTasks = new ArrayList<CompletableFuture<@Nullable PreparedElement<Entry>>>();
+
+            var entryLocations = new HashMap<EntryKey, Identifier>();
+            var removedEntries = new HashSet<EntryKey>();
+
+            for (var book : books) {
+                categories.getOrDefault(book.id(), Map.of()).forEach((identifier, resource) -> {
+                    categoryTasks.add(prepareElement(book, "category", identifier, () -> loadCategory(book, identifier, resource, sources), executor));
+                });
+
+                entries.getOrDefault(book.id(), Map.of()).forEach((identifier, resource) -> {
+                    var key = new EntryKey(book.id(), identifier);
+                    entryLocations.put(key, resource.location());
 
-                var requiredAdvancements = new ImmutableSet.Builder<Identifier>();
-                for (var advancementElement : JsonHelper.getArray(markdown.meta, "required_advancements", new JsonArray())) {
-                    if (!advancementElement.isJsonPrimitive()) continue;
+                    if (incremental) {
+                        if (resource.location().equals(LOADED_ENTRIES.get(key)) && !changedResources.contains(resource.location())) {
+                            return;
+                        }
 
-                    var advancementId = Identifier.tryParse(advancementElement.getAsString());
-                    if (advancementId == null) {
-                        Lavender.LOGGER.warn("Did not add advancement '{}' as requirement to entry '{}' as it is not a valid advancement identifier", advancementElement.getAsString(), identifier);
-                        continue;
+                        removedEntries.add(key);
                     }
 
-                    requiredAdvancements.add(advancementId);
-                }
+                    entryTasks.add(prepareElement(book, "entry", identifier, () -> loadEntry(book, identifier, resource, sources), executor));
+                });
+            }
 
-                var entry = new Entry(identifier, categoryId, title, icon, secret, ordinal, requiredAdvancements.build(), associatedItems.build(), markdown.content);
-                if (entry.id().getPath().equals("landing_page")) {
-                    book.setLandingPage(entry);
-                } else {
-                    book.addEntry(entry);
+            if (incremental) {
+                for (var key : LOADED_ENTRIES.keySet()) {
+                    if (!entryLocations.containsKey(key)) removedEntries.add(key);
                 }
-            });
-        }
-    }
-
-    private static Map<String, Map<String, Resource>> findResources(ResourceManager manager, ResourceFinder finder) {
-        var resources = new HashMap<String, Map<String, Resource>>();
-        finder.findResources(manager).forEach((identifier, resource) -> {
-            var resourceId = finder.toResourceId(identifier);
-            resources.computeIfAbsent(resourceId.getNamespace(), s -> new HashMap<>()).put(resourceId.getPath(), resource);
-        });
+            }
 
-        return resources;
+            return CompletableFuture.allOf(Stream.concat(categoryTasks.stream(), entryTasks.stream()).toArray(CompletableFuture[]::new))
+                    .thenApply($ -> new PreparedContents(false, fingerprint, replacementBooks, collectPrepared(categoryTasks), collectPrepared(entryTasks), removedEntries, entryLocations));
+        }, executor).thenCompose(Function.identity());
     }
 
-    private static void forResourceOfBook(Map<String, Map<String, Resource>> resources, Book book, String resourceType, BiConsumer<Identifier, Resource> action) {
-        if (!resources.containsKey(book.id().getNamespace())) return;
+    private static void applyContents(PreparedContents contents) {
+        if (contents.unchanged()) {
+            BookLoader.markContentsUnchanged(contents.fingerprint());
+            return;
+        }
 
-        var targetBook = book.id().getPath();
-        var activeLanguage = MinecraftClient.getInstance().getLanguageManager().getLanguage();
+        if (contents.replacementBooks() != null) BookLoader.installBooks(contents.replacementBooks());
 
-        var discoveredResources = new HashMap<Identifier, Resource>();
+        for (var removed : contents.removedEntries()) {
+            var book = BookLoader.get(removed.book());
+            if (book == null) continue;
 
-        resources.get(book.id().getNamespace()).forEach((path, resource) -> {
-            var bookResourcePath = getBookResourcePath(path, targetBook, null);
-            if (bookResourcePath == null) return;
+            if (removed.entry().getPath().equals("landing_page")) {
+                book.setLandingPage(null);
+            } else {
+                book.removeEntry(removed.entry());
+            }
+        }
 
-            discoveredResources.put(new Identifier(book.id().getNamespace(), bookResourcePath), resource);
+        // categories must all be present before
+        // any entries get added, since adding an
+        // entry validates its category
+        applyPrepared(contents.categories(), Book::addCategory);
+        applyPrepared(contents.entries(), (book, entry) -> {
+            if (entry.id().getPath().equals("landing_page")) {
+                book.setLandingPage(entry);
+            } else {
+                book.addEntry(entry);
+            }
         });
 
-        resources.get(book.id().getNamespace()).forEach((path, resource) -> {
-            var bookResourcePath = getBookResourcePath(path, targetBook, activeLanguage);
-            if (bookResourcePath == null) return;
+        LOADED_ENTRIES.clear();
+        LOADED_ENTRIES.putAll(contents.entryLocations());
+        EntryContentCache.clear();
+        ParsedMarkdownCache.clear();
 
-            discoveredResources.put(new Identifier(book.id().getNamespace(), bookResourcePath), resource);
-        });
+        for (var book : BookLoader.allBooks()) {
+            book.rebuildSearchIndex();
+        }
+
+        BookLoader.markContentsLoaded(contents.fingerprint());
+        BookContentCache.save();
+    }
 
-        discoveredResources.forEach((resourceId, resource) -> {
+    /**
+     * @return The ids of all item tags which were referenced by
+     * the associated items of entries during the last content load
+     */
+    static Set<Identifier> referencedTags() {
+        return Collections.unmodifiableSet(REFERENCED_TAGS);
+    }
+
+    private static <E> CompletableFuture<@Nullable PreparedElement<E>> prepareElement(Book book, String resourceType, Identifier resourceId, Supplier<@Nullable E> loader, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
             try {
-                action.accept(resourceId, resource);
+                var element = loader.get();
+                return element != null ? new PreparedElement<>(book, resourceType, resourceId, element) : null;
             } catch (RuntimeException e) {
                 Lavender.LOGGER.warn("Could not load {} '{}'", resourceType, resourceId, e);
+                return null;
             }
-        });
+        }, executor);
     }
 
-    private static @Nullable String getBookResourcePath(String resourcePath, String bookName, @Nullable String activeLanguage) {
-        String book = null;
-        String language = null;
+    private static <E> List<PreparedElement<E>> collectPrepared(List<CompletableFuture<@Nullable PreparedElement<E>>> tasks) {
+        var elements = new ArrayList<PreparedElement<E>>(tasks.size());
+        for (var task : tasks) {
+            var element = task.join();
+            if (element != null) elements.add(element);
+        }
+
+        return elements;
+    }
 
-        if (resourcePath.indexOf('/') != -1) {
-            book = resourcePath.substring(0, resourcePath.indexOf('/'));
-            resourcePath = resourcePath.substring(resourcePath.indexOf('/')+ 1);
+    private static <E> void applyPrepared(List<PreparedElement<E>> elements, BiConsumer<Book, E> action) {
+        for (var element : elements) {
+            // extensions whose target disappeared
+            // were dropped while installing the books
+            if (BookLoader.get(element.book().id()) != element.book()) continue;
+
+            try {
+                action.accept(element.book(), element.element());
+            } catch (RuntimeException e) {
+                Lavender.LOGGER.warn("Could not load {} '{}'", element.resourceType(), element.resourceId(), e);
+            }
         }
+    }
 
-        if (resourcePath.indexOf('/') != -1) {
-            language = resourcePath.substring(0, resourcePath.indexOf('/'));
-            if (MinecraftClient.getInstance().getLanguageManager().getAllLanguages().keySet().contains(language)) {
-                resourcePath = resourcePath.substring(resourcePath.indexOf('/') + 1);
-            } else {
-                language = null;
+    private static @Nullable Category loadCategory(Book book, Identifier identifier, LocatedResource resource, MarkdownSources sources) {
+        var markdown = loadMarkdown(book, identifier, resource, sources);
+        if (markdown == null) return null;
+
+        var parentCategory = markdown.meta.parent();
+        var parentCategoryId = parentCategory != null
+                ? parentCategory.indexOf(':') > 0 ? Identifier.tryParse(parentCategory) : new Identifier(identifier.getNamespace(), parentCategory)
+                : null;
+
+        return new Category(
+                identifier,
+                parentCategoryId,
+                markdown.meta.title(),
+                getIcon(markdown.meta),
+                markdown.meta.secret(),
+                markdown.meta.ordinal(),
+                markdown.content.get()
+        );
+    }
+
+    private static @Nullable Entry loadEntry(Book book, Identifier identifier, LocatedResource resource, MarkdownSources sources) {
+        var markdown = loadMarkdown(book, identifier, resource, sources);
+        if (markdown == null) return null;
+
+        var category = markdown.meta.category();
+        var categoryId = category != null
+                ? category.indexOf(':') > 0 ? Identifier.tryParse(category) : new Identifier(identifier.getNamespace(), category)
+                : null;
+
+        var title = markdown.meta.title();
+        var icon = getIcon(markdown.meta);
+        var secret = markdown.meta.secret();
+        var ordinal = markdown.meta.ordinal();
+
+        var associatedItems = new ImmutableSet.Builder<ItemStack>();
+        for (var itemString : markdown.meta.associatedItems()) {
+            associatedItems.addAll(itemsFromString(itemString, sources.itemTags()));
+        }
+
+        var requiredAdvancements = new ImmutableSet.Builder<Identifier>();
+        for (var advancement : markdown.meta.requiredAdvancements()) {
+            var advancementId = Identifier.tryParse(advancement);
+            if (advancementId == null) {
+                Lavender.LOGGER.warn("Did not add advancement '{}' as requirement to entry '{}' as it is not a valid advancement identifier", advancement, identifier);
+                continue;
             }
+
+            requiredAdvancements.add(advancementId);
         }
 
-        if (!bookName.equals(book) || !Objects.equals(activeLanguage, language)) return null;
-        return resourcePath;
+        return Entry.withLazyContent(identifier, categoryId, title, icon, secret, ordinal, requiredAdvancements.build(), associatedItems.build(), markdown.content);
+    }
+
+    /**
+     * Index all resources {@code finder} locates by the book they belong to in a single pass.
+     * Resources in the directory of the active language override those outside any language
+     * directory, while resources in the directory of any other language are dropped
+     *
+     * @return A map from book id to a map from element id to the resource defining that element
+     */
+    private static Map<Identifier, Map<Identifier, LocatedResource>> indexResources(ResourceManager manager, ResourceFinder finder, String activeLanguage, Set<String> languages) {
+        var resources = new HashMap<Identifier, Map<Identifier, LocatedResource>>();
+        finder.findResources(manager).forEach((identifier, resource) -> {
+            var resourceId = finder.toResourceId(identifier);
+            var path = resourceId.getPath();
+
+            int bookEnd = path.indexOf('/');
+            if (bookEnd == -1) return;
+
+            var bookId = new Identifier(resourceId.getNamespace(), path.substring(0, bookEnd));
+            var bookResources = resources.computeIfAbsent(bookId, $ -> new HashMap<>());
+
+            int languageEnd = path.indexOf('/', bookEnd + 1);
+            if (languageEnd != -1) {
+                var language = path.substring(bookEnd + 1, languageEnd);
+                if (languages.contains(language)) {
+                    if (language.equals(activeLanguage)) {
+                        bookResources.put(new Identifier(resourceId.getNamespace(), path.substring(languageEnd + 1)), new LocatedResource(identifier, resource));
+                    }
+
+                    return;
+                }
+            }
+
+            bookResources.putIfAbsent(new Identifier(resourceId.getNamespace(), path.substring(bookEnd + 1)), new LocatedResource(identifier, resource));
+        });
+
+        return resources;
     }
 
-    private static @Nullable MarkdownResource parseMarkdown(Book book, Identifier resourceId, Resource resource) {
+    /**
+     * Load the markdown backing {@code resourceId}, either from the persistent
+     * content cache or by reading, parsing and macro-expanding {@code resource}.
+     * Unless its version can only be determined from its contents, a cached
+     * resource is never read
+     */
+    private static @Nullable MarkdownResource loadMarkdown(Book book, Identifier resourceId, LocatedResource resource, MarkdownSources sources) {
         try {
-            var content = IOUtils.toString(resource.getInputStream(), StandardCharsets.UTF_8).strip();
-            JsonObject meta;
-
-            if (content.startsWith("```json")) {
-                content = content.substring("```json".length());
-                int frontmatterEnd = content.indexOf("```");
-                if (frontmatterEnd == -1) {
-                    throw new RuntimeException("Unterminated markdown meta");
+            var contentsHolder = new byte[][]{sources.resourceContents().get(resource.location())};
+            InputSupplier<byte[]> contents = () -> {
+                if (contentsHolder[0] == null) {
+                    try (var stream = resource.resource().getInputStream()) {
+                        contentsHolder[0] = stream.readAllBytes();
+                    }
                 }
 
-                meta = GSON.fromJson(content.substring(0, frontmatterEnd), JsonObject.class);
-                content = content.substring(frontmatterEnd + 3).stripLeading();
+                return contentsHolder[0];
+            };
 
-                return ResourceConditions.objectMatchesConditions(meta)
-                        ? new MarkdownResource(meta, book.expandMacros(resourceId, content.replaceAll("\\r\\n?", "\n")))
+            var resourceHash = sources.fingerprint() != null ? sources.fingerprint().resourceHashes().get(resource.location()) : null;
+            if (resourceHash == null) {
+                resourceHash = sources.versions().versionOf(resource.location(), resource.resource(), contents);
+            }
+
+            var cached = BookContentCache.get(resource.location(), resourceHash, book.macroHash(), sources.language());
+            if (cached != null) {
+                var meta = cached.meta().get();
+                return meta.conditionsMet()
+                        ? new MarkdownResource(meta, cached.content())
                         : null;
-            } else {
-                throw new RuntimeException("Missing markdown meta");
             }
+
+            var markdown = parseMarkdown(book, resourceId, new String(contents.get(), StandardCharsets.UTF_8));
+            if (markdown == null) return null;
+
+            // hand out the cached record's content so that
+            // the expanded string can leave the heap once it has been saved
+            var stored = BookContentCache.put(resource.location(), resourceHash, book.macroHash(), sources.language(), markdown.meta, markdown.content.get());
+            return new MarkdownResource(markdown.meta, stored.content());
         } catch (Exception e) {
             Lavender.LOGGER.warn("Could not load markdown file {}", resourceId, e);
             return null;
         }
     }
 
-    private record MarkdownResource(JsonObject meta, String content) {}
+    private static @Nullable MarkdownResource parseMarkdown(Book book, Identifier resourceId, String content) {
+        content = content.strip();
+        JsonObject meta;
+
+        if (content.startsWith("```json")) {
+            content = content.substring("```json".length());
+            int frontmatterEnd = content.indexOf("```");
+            if (frontmatterEnd == -1) {
+                throw new RuntimeException("Unterminated markdown meta");
+            }
+
+            meta = GSON.fromJson(content.substring(0, frontmatterEnd), JsonObject.class);
+            content = content.substring(frontmatterEnd + 3).stripLeading();
+
+            if (!ResourceConditions.objectMatchesConditions(meta)) return null;
+
+            var expandedContent = book.expandMacros(resourceId, content.replaceAll("\\r\\n?", "\n"));
+            return new MarkdownResource(MarkdownMeta.fromJson(meta), () -> expandedContent);
+        } else {
+            throw new RuntimeException("Missing markdown meta");
+        }
+    }
+
+    private record MarkdownResource(MarkdownMeta meta, Supplier<String> content) {}
+
+    private record PreparedElement<E>(Book book, String resourceType, Identifier resourceId, E element) {}
+
+    /**
+     * @param unchanged        Whether the library did not change, in which case nothing is loaded
+     * @param fingerprint      The fingerprint of the prepared library, or {@code null} if it is not tracked
+     * @param replacementBooks The books to install before applying, if the loaded books were kept but
+     *                         their categories changed and everything had to be loaded again
+     */
+    private record PreparedContents(boolean unchanged, @Nullable LibraryFingerprint fingerprint, @Nullable Map<Identifier, Book> replacementBooks, List<PreparedElement<Category>> categories, List<PreparedElement<Entry>> entries, Set<EntryKey> removedEntries, Map<EntryKey, Identifier> entryLocations) {
+        static PreparedContents unchanged(LibraryFingerprint fingerprint) {
+            return new PreparedContents(true, fingerprint, null, List.of(), List.of(), Set.of(), Map.of());
+        }
+    }
+
+    private record LocatedResource(Identifier location, Resource resource) {}
+
+    /**
+     * @param versions         The resource versions used while fingerprinting
+     * @param resourceContents The contents of every resource that was read while fingerprinting
+     * @param itemTags         The contents of every item tag, captured on the client thread
+     */
+    private record MarkdownSources(@Nullable LibraryFingerprint fingerprint, ResourceVersions versions, Map<Identifier, byte[]> resourceContents, Map<Identifier, List<Item>> itemTags, String language) {}
+
+    private record EntryKey(Identifier book, Identifier entry) {}
 
-    private static Function<Sizing, Component> getIcon(JsonObject meta) {
-        if (meta.has("icon")) {
-            var stackString = JsonHelper.getString(meta, "icon");
-            return sizing -> Components.item(itemStackFromString(stackString)).sizing(sizing);
-        } else if (meta.has("icon_sprite")) {
-            var id = Identifier.tryParse(JsonHelper.getString(meta, "icon_sprite"));
+    private static Function<Sizing, Component> getIcon(MarkdownMeta meta) {
+        if (meta.icon() != null) {
+            var stack = itemStackFromString(meta.icon());
+            return sizing -> Components.item(stack).sizing(sizing);
+        } else if (meta.iconSprite() != null) {
+            var id = Identifier.tryParse(meta.iconSprite());
             if (id == null) return null;
 
             return sizing -> Components.sprite(MinecraftClient.getInstance().getGuiAtlasManager().getSprite(id)).sizing(sizing);
@@ -226,7 +443,7 @@ public class BookContentLoader implements SynchronousResourceReloader, Identifia
         }
     }
 
-    private static Collection<ItemStack> itemsFromString(String itemsString) {
+    private static Collection<ItemStack> itemsFromString(String itemsString, Map<Identifier, List<Item>> itemTags) {
         if (!itemsString.startsWith("#")) return List.of(itemStackFromString(itemsString));
 
         var tagId = Identifier.tryParse(itemsString.substring(1));
@@ -235,25 +452,33 @@ public class BookContentLoader implements SynchronousResourceReloader, Identifia
             return List.of();
         }
 
-        var entryList = Registries.ITEM.getEntryList(TagKey.of(RegistryKeys.ITEM, tagId));
-        if (entryList.isEmpty()) {
+        REFERENCED_TAGS.add(tagId);
+
+        var tagItems = itemTags.get(tagId);
+        if (tagItems == null) {
             Lavender.LOGGER.warn("Unknown item tag: '" + itemsString + "'");
             return List.of();
         }
 
-        return entryList.get().stream().map(RegistryEntry::value).map(Item::getDefaultStack).toList();
+        return tagItems.stream().map(Item::getDefaultStack).toList();
     }
 
+    /**
+     * Parse {@code stackString} into an item stack. Results are shared between all
+     * icons and associated items of the current content load and must not be mutated
+     */
     private static ItemStack itemStackFromString(String stackString) {
-        try {
-            var parsed = ItemStringReader.item(Registries.ITEM.getReadOnlyWrapper(), new StringReader(stackString));
+        return PARSED_STACKS.computeIfAbsent(stackString, $ -> {
+            try {
+                var parsed = ItemStringReader.item(Registries.ITEM.getReadOnlyWrapper(), new StringReader(stackString));
 
-            var stack = parsed.item().value().getDefaultStack();
-            if (parsed.nbt() != null) stack.setNbt(parsed.nbt());
+                var stack = parsed.item().value().getDefaultStack();
+                if (parsed.nbt() != null) stack.setNbt(parsed.nbt());
 
-            return stack;
-        } catch (CommandSyntaxException e) {
-            throw new JsonSyntaxException("Invalid item stack: '" + stackString +  "'", e);
-        }
+                return stack;
+            } catch (CommandSyntaxException e) {
+                throw new JsonSyntaxException("Invalid item stack: '" + stackString +  "'", e);
+            }
+        });
     }
 }
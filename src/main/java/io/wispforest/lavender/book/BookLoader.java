@@ -8,7 +8,10 @@ import com.google.gson.reflect.TypeToken;
 import io.wispforest.lavender.Lavender;
 import io.wispforest.lavender.client.BookBakedModel;
 import net.fabricmc.fabric.api.client.model.loading.v1.ModelLoadingPlugin;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.network.ClientAdvancementManager;
 import net.minecraft.client.util.ModelIdentifier;
+import net.minecraft.item.Item;
 import net.minecraft.registry.Registries;
 import net.minecraft.resource.ResourceFinder;
 import net.minecraft.resource.ResourceManager;
@@ -17,20 +20,26 @@ import net.minecraft.util.JsonHelper;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class BookLoader {
 
     private static final Gson GSON = new GsonBuilder().setLenient().disableHtmlEscaping().create();
     private static final TypeToken<Map<String, String>> MACROS_TOKEN = new TypeToken<>() {};
-    private static final ResourceFinder BOOK_FINDER = ResourceFinder.json("lavender/books");
+    static final ResourceFinder BOOK_FINDER = ResourceFinder.json("lavender/books");
 
     private static final Map<Identifier, Book> LOADED_BOOKS = new HashMap<>();
     private static final Map<Identifier, Book> VISIBLE_BOOKS = new HashMap<>();
 
+    private static @Nullable LibraryFingerprint loadedFingerprint = null;
+    private static PendingContentReload pendingContentReload = PendingContentReload.UNTRACKED;
+    private static int loadGeneration = 0;
+
     public static void initialize() {
         ModelLoadingPlugin.register(context -> {
             context.addModels(BookBakedModel.Unbaked.BROWN_BOOK_ID);
@@ -53,18 +62,55 @@ public class BookLoader {
         return Collections.unmodifiableCollection(LOADED_BOOKS.values());
     }
 
+    /**
+     * Recompute which entries of all loaded books are visible,
+     * called whenever the client receives advancement progress
+     */
+    public static void updateEntryVisibility(ClientAdvancementManager advancementHandler) {
+        for (var book : LOADED_BOOKS.values()) {
+            book.updateEntryVisibility(advancementHandler);
+        }
+    }
+
     public static void reload(ResourceManager manager) {
-        LOADED_BOOKS.clear();
+        var language = MinecraftClient.getInstance().getLanguageManager().getLanguage();
+        var tags = LibraryFingerprint.captureTags(BookContentLoader.referencedTags());
+
+        var bookHashes = new HashMap<Identifier, Long>();
+        var books = readBooks(manager, bookHashes);
+
+        var previous = loadedFingerprint;
+        loadedFingerprint = null;
+
+        // the book definitions are tiny, so they are always read here. whether the
+        // categories and entries changed is only determined by the content loader,
+        // which fingerprints them off-thread in its prepare stage
+        if (previous != null && previous.permitsBookReuse(language, tags, bookHashes)) {
+            pendingContentReload = new PendingContentReload(PendingContentReload.Kind.BOOKS_UNCHANGED, language, tags, previous, books);
+            return;
+        }
+
+        installBooks(books);
+        pendingContentReload = new PendingContentReload(PendingContentReload.Kind.BOOKS_RELOADED, language, tags, null, Map.of());
+    }
+
+    private static Map<Identifier, Book> readBooks(ResourceManager manager, Map<Identifier, Long> bookHashes) {
+        var books = new HashMap<Identifier, Book>();
+        var versions = new ResourceVersions();
+
         BOOK_FINDER.findResources(manager).forEach((identifier, resource) -> {
             JsonElement jsonElement;
-            try (var reader = resource.getReader()) {
-                jsonElement = JsonHelper.deserialize(GSON, reader, JsonElement.class);
+            try (var stream = resource.getInputStream()) {
+                var contents = stream.readAllBytes();
+                bookHashes.put(identifier, versions.versionOf(identifier, resource, () -> contents));
+
+                jsonElement = JsonHelper.deserialize(GSON, new String(contents, StandardCharsets.UTF_8), JsonElement.class);
             } catch (IOException e) {
                 Lavender.LOGGER.warn("Could not load book '{}'", identifier, e);
                 return;
             }
 
-            if (!jsonElement.isJsonObject()) return;
+            if (jsonElement == null || !jsonElement.isJsonObject()) return;
             var bookObject = jsonElement.getAsJsonObject();
             var resourceId = BOOK_FINDER.toResourceId(identifier);
 
@@ -81,11 +127,25 @@ public class BookLoader {
 
             var displayCompletion = JsonHelper.getBoolean(bookObject, "display_completion", false);
             var displayUnreadEntryNotifications = JsonHelper.getBoolean(bookObject, "display_unread_entry_notifications", true);
+            var prefetchEntries = JsonHelper.getBoolean(bookObject, "prefetch_entries", false);
             var macros = GSON.fromJson(JsonHelper.getObject(bookObject, "macros", new JsonObject()), MACROS_TOKEN);
 
-            var book = new Book(resourceId, extendId, textureId, dynamicBookModelId, openSoundEvent, flippingSoundEvent, introEntryId, displayUnreadEntryNotifications, displayCompletion, macros);
-            LOADED_BOOKS.put(resourceId, book);
-            if (extendId == null) VISIBLE_BOOKS.put(resourceId, book);
+            books.put(resourceId, new Book(resourceId, extendId, textureId, dynamicBookModelId, openSoundEvent, flippingSoundEvent, introEntryId, displayUnreadEntryNotifications, displayCompletion, prefetchEntries, macros));
+        });
+
+        return books;
+    }
+
+    /**
+     * Replace the loaded books with {@code books} and resolve their extensions.
+     * Extensions whose target could not be found are dropped
+     */
+    static void installBooks(Map<Identifier, Book> books) {
+        LOADED_BOOKS.clear();
+        LOADED_BOOKS.putAll(books);
+
+        books.forEach((bookId, book) -> {
+            if (!book.isExtension()) VISIBLE_BOOKS.put(bookId, book);
         });
 
         LOADED_BOOKS.values().removeIf(book -> {
@@ -96,10 +156,84 @@ public class BookLoader {
         });
     }
 
+    /**
+     * @return What the content reload following the last call to {@link #reload(ResourceManager)}
+     * must do. Calling this resets the pending reload to {@link PendingContentReload#UNTRACKED}, so
+     * content reloads which were not preceded by a book reload always rebuild everything
+     */
+    static PendingContentReload consumePendingContentReload() {
+        var pending = pendingContentReload;
+        pendingContentReload = PendingContentReload.UNTRACKED;
+
+        return pending;
+    }
+
+    /**
+     * Record the fingerprint of the library after its contents have been fully loaded,
+     * so that the next reload can be skipped if nothing changed. If the content reload
+     * did not follow a book reload, the books may be in an inconsistent state and
+     * {@code fingerprint} is {@code null}, which drops the recorded fingerprint
+     */
+    static void markContentsLoaded(@Nullable LibraryFingerprint fingerprint) {
+        loadedFingerprint = fingerprint != null ? fingerprint.withTags(BookContentLoader.referencedTags()) : null;
+        loadGeneration++;
+    }
+
+    /**
+     * Record the fingerprint of the library after the content loader
+     * found it unchanged, without touching the loaded books
+     */
+    static void markContentsUnchanged(LibraryFingerprint fingerprint) {
+        loadedFingerprint = fingerprint;
+    }
+
+    /**
+     * @return A counter which is incremented every time
+     * the contents of the loaded books have been (re)loaded
+     */
+    public static int loadGeneration() {
+        return loadGeneration;
+    }
+
     private static @Nullable Identifier tryGetId(JsonObject json, String key) {
         var jsonString = JsonHelper.getString(json, key, null);
         if (jsonString == null) return null;
 
         return Identifier.tryParse(jsonString);
     }
+
+    /**
+     * A content reload requested by {@link #reload(ResourceManager)}
+     *
+     * @param language       The language active when the books were reloaded
+     * @param tags           The contents of the referenced item tags when the books were reloaded
+     * @param previous       The fingerprint of the library as it is currently loaded,
+     *                       only present if the books were {@linkplain Kind#BOOKS_UNCHANGED unchanged}
+     * @param candidateBooks Freshly read copies of the loaded books, to be installed
+     *                       if the content loader determines that a full reload is required
+     */
+    record PendingContentReload(Kind kind, String language, Map<Identifier, List<Item>> tags, @Nullable LibraryFingerprint previous, Map<Identifier, Book> candidateBooks) {
+        static final PendingContentReload UNTRACKED = new PendingContentReload(Kind.UNTRACKED, "", Map.of(), null, Map.of());
+
+        enum Kind {
+            /**
+             * The content reload was not preceded by a book
+             * reload, everything must be loaded and the result
+             * is not fingerprinted
+             */
+            UNTRACKED,
+            /**
+             * The books were recreated, every category and
+             * entry must be loaded into them
+             */
+            BOOKS_RELOADED,
+            /**
+             * The books did not change. Depending on the fingerprint
+             * of categories and entries, the content loader either skips
+             * loading, only updates changed entries or installs the
+             * candidate books and loads everything into them
+             */
+            BOOKS_UNCHANGED
+        }
+    }
 }
@@ -4,12 +4,15 @@ import com.google.common.collect.ImmutableSet;
 import io.wispforest.lavender.mixin.ClientAdvancementManagerAccessor;
 import io.wispforest.owo.ui.core.Component;
 import io.wispforest.owo.ui.core.Sizing;
+import net.minecraft.client.network.ClientAdvancementManager;
 import net.minecraft.client.network.ClientPlayerEntity;
 import net.minecraft.item.ItemStack;
 import net.minecraft.util.Identifier;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Objects;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 public record Entry(
         Identifier id,
@@ -23,9 +26,54 @@ public record Entry(
         String content
 ) implements Book.BookmarkableElement {
 
+    /**
+     * Create an entry whose content is only materialised on demand through
+     * {@code contentSource}, of which only a bounded amount is kept in memory
+     */
+    static Entry withLazyContent(
+            Identifier id,
+            @Nullable Identifier category,
+            String title,
+            Function<Sizing, Component> iconFactory,
+            boolean secret,
+            int ordinal,
+            ImmutableSet<Identifier> requiredAdvancements,
+            ImmutableSet<ItemStack> associatedItems,
+            Supplier<String> contentSource
+    ) {
+        var entry = new Entry(id, category, title, iconFactory, secret, ordinal, requiredAdvancements, associatedItems, null);
+        EntryContentCache.registerSource(entry, contentSource);
+
+        return entry;
+    }
+
+    /**
+     * @return The macro-expanded markdown content of this entry
+     * @throws IllegalStateException If this entry is lazily loaded
+     *                               and its content source is gone
+     */
+    @Override
+    public String content() {
+        return this.content != null ? this.content : EntryContentCache.get(this);
+    }
+
+    /**
+     * @return The content of this entry, read without
+     * evicting anything from the content cache
+     */
+    String readContent() {
+        return this.content != null ? this.content : EntryContentCache.source(this).get();
+    }
+
+    /**
+     * Check the advancement requirements of this entry directly. Unless
+     * the current state is explicitly needed, prefer {@link Book#isVisible(Entry)}
+     */
     public boolean canPlayerView(ClientPlayerEntity player) {
-        var advancementHandler = player.networkHandler.getAdvancementHandler();
+        return this.isUnlocked(player.networkHandler.getAdvancementHandler());
+    }
 
+    boolean isUnlocked(ClientAdvancementManager advancementHandler) {
         for (var advancementId : this.requiredAdvancements) {
             var advancement = advancementHandler.getManager().get(advancementId);
             if (advancement == null) return false;
@@ -37,4 +85,42 @@ public record Entry(
         return true;
     }
 
+    // lazily loaded entries must not materialise their content just to be
+    // compared, so they are equal only if they share the same content source
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Entry other)) return false;
+
+        return this.secret == other.secret
+                && this.ordinal == other.ordinal
+                && this.id.equals(other.id)
+                && Objects.equals(this.category, other.category)
+                && this.title.equals(other.title)
+                && this.iconFactory.equals(other.iconFactory)
+                && this.requiredAdvancements.equals(other.requiredAdvancements)
+                && this.associatedItems.equals(other.associatedItems)
+                && Objects.equals(this.content, other.content)
+                && (this.content != null || EntryContentCache.source(this) == EntryContentCache.source(other));
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.id, this.category, this.title, this.iconFactory, this.secret, this.ordinal, this.requiredAdvancements, this.associatedItems);
+    }
+
+    @Override
+    public String toString() {
+        return "Entry[id=" + this.id
+                + ", category=" + this.category
+                + ", title=" + this.title
+                + ", iconFactory=" + this.iconFactory
+                + ", secret=" + this.secret
+                + ", ordinal=" + this.ordinal
+                + ", requiredAdvancements=" + this.requiredAdvancements
+                + ", associatedItems=" + this.associatedItems
+                + ", content=" + (this.content != null ? this.content : "<lazy>")
+                + "]";
+    }
 }
@@ -0,0 +1,66 @@
+package io.wispforest.lavender.book;
+
+import com.google.common.collect.MapMaker;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A size-bounded, least-recently-used cache of materialised entry content.
+ * Lazily loaded entries register a handle to their content here, which
+ * is decoded through this cache when the entry is actually displayed
+ */
+final class EntryContentCache {
+
+    private static final int MAX_CACHED_CHARS = 2_000_000;
+
+    // weak keys are compared by identity, so this never calls Entry#equals
+    private static final Map<Entry, Supplier<String>> SOURCES = new MapMaker().weakKeys().makeMap();
+
+    private static final LinkedHashMap<Supplier<String>, String> CACHE = new LinkedHashMap<>(16, .75f, true);
+    private static int cachedChars = 0;
+
+    private EntryContentCache() {}
+
+    static void registerSource(Entry entry, Supplier<String> source) {
+        SOURCES.put(entry, source);
+    }
+
+    /**
+     * @throws IllegalStateException If no content source was registered for {@code entry}
+     */
+    static Supplier<String> source(Entry entry) {
+        var source = SOURCES.get(entry);
+        if (source == null) throw new IllegalStateException("No content source is registered for entry '" + entry.id() + "'");
+
+        return source;
+    }
+
+    static synchronized String get(Entry entry) {
+        var source = source(entry);
+
+        var content = CACHE.get(source);
+        if (content != null) return content;
+
+        content = source.get();
+        CACHE.put(source, content);
+        cachedChars += content.length();
+
+        var iterator = CACHE.entrySet().iterator();
+        while (cachedChars > MAX_CACHED_CHARS && iterator.hasNext()) {
+            Map.Entry<Supplier<String>, String> eldest = iterator.next();
+            if (eldest.getKey() == source) break;
+
+            cachedChars -= eldest.getValue().length();
+            iterator.remove();
+        }
+
+        return content;
+    }
+
+    static synchronized void clear() {
+        CACHE.clear();
+        cachedChars = 0;
+    }
+}
@@ -0,0 +1,181 @@
+package io.wispforest.lavender.book;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * An inverted index over the titles, associated item names and plain-text
+ * content of a book's entries. Queries are split into terms, every term
+ * matches all indexed words it is a prefix of, and only entries matching
+ * every term are returned. Additionally, terms always match entries
+ * whose title contains them anywhere
+ * <p>
+ * Indices are immutable and built off-thread by {@link #build(Collection)}
+ */
+public final class EntrySearchIndex {
+
+    private static final int TITLE_WEIGHT = 8, ITEM_NAME_WEIGHT = 4, CONTENT_WEIGHT = 1;
+
+    private static final Pattern CODE_BLOCK_PATTERN = Pattern.compile("```.*?```", Pattern.DOTALL);
+    private static final Pattern TEMPLATE_PATTERN = Pattern.compile("<\\|.*?\\|>", Pattern.DOTALL);
+    private static final Pattern IMAGE_PATTERN = Pattern.compile("!\\[[^]]*]\\([^)]*\\)");
+    private static final Pattern LINK_PATTERN = Pattern.compile("\\[([^]]*)]\\([^)]*\\)");
+    private static final Pattern FORMATTING_PATTERN = Pattern.compile("\\{[^}]*}");
+
+    private final Entry[] entries;
+    private final String[] titles;
+    private final String[] terms;
+    private final int[][] postingEntries;
+    private final int[][] postingScores;
+
+    private EntrySearchIndex(Entry[] entries, String[] terms, int[][] postingEntries, int[][] postingScores) {
+        this.entries = entries;
+        this.titles = new String[entries.length];
+        this.terms = terms;
+        this.postingEntries = postingEntries;
+        this.postingScores = postingScores;
+
+        for (int i = 0; i < entries.length; i++) {
+            this.titles[i] = entries[i].title().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    static EntrySearchIndex build(Collection<Entry> entries) {
+        var indexedEntries = entries.toArray(Entry[]::new);
+        var postings = new HashMap<String, Int2IntOpenHashMap>();
+
+        for (int entryIndex = 0; entryIndex < indexedEntries.length; entryIndex++) {
+            var entry = indexedEntries[entryIndex];
+
+            indexText(postings, entryIndex, entry.title(), TITLE_WEIGHT);
+            for (var stack : entry.associatedItems()) {
+                indexText(postings, entryIndex, stack.getName().getString(), ITEM_NAME_WEIGHT);
+            }
+
+            // bypass the content cache, this would
+            // otherwise evict everything it holds
+            indexText(postings, entryIndex, stripMarkdown(entry.readContent()), CONTENT_WEIGHT);
+        }
+
+        var terms = postings.keySet().toArray(String[]::new);
+        Arrays.sort(terms);
+
+        var postingEntries = new int[terms.length][];
+        var postingScores = new int[terms.length][];
+
+        for (int termIndex = 0; termIndex < terms.length; termIndex++) {
+            var termPostings = postings.get(terms[termIndex]);
+
+            postingEntries[termIndex] = new int[termPostings.size()];
+            postingScores[termIndex] = new int[termPostings.size()];
+
+            int postingIndex = 0;
+            for (var posting : termPostings.int2IntEntrySet()) {
+                postingEntries[termIndex][postingIndex] = posting.getIntKey();
+                postingScores[termIndex][postingIndex] = posting.getIntValue();
+                postingIndex++;
+            }
+        }
+
+        return new EntrySearchIndex(indexedEntries, terms, postingEntries, postingScores);
+    }
+
+    /**
+     * @return All entries matching every term of {@code query}, mapped to their relevance
+     * score. Matches in titles weigh more than matches in item names, which in turn weigh
+     * more than matches in content, and whole-word matches weigh double. If {@code query}
+     * contains no terms at all, {@code null} is returned to signal that nothing is filtered
+     */
+    public @Nullable Object2IntMap<Entry> search(String query) {
+        var queryTerms = tokenize(query);
+        if (queryTerms.isEmpty()) return null;
+
+        Int2IntOpenHashMap matches = null;
+
+        for (var queryTerm : queryTerms) {
+            var termMatches = new Int2IntOpenHashMap();
+
+            int termIndex = Arrays.binarySearch(this.terms, queryTerm);
+            if (termIndex < 0) termIndex = -termIndex - 1;
+
+            for (; termIndex < this.terms.length && this.terms[termIndex].startsWith(queryTerm); termIndex++) {
+                int multiplier = this.terms[termIndex].length() == queryTerm.length() ? 2 : 1;
+
+                var entries = this.postingEntries[termIndex];
+                var scores = this.postingScores[termIndex];
+                for (int i = 0; i < entries.length; i++) {
+                    termMatches.addTo(entries[i], scores[i] * multiplier);
+                }
+            }
+
+            // terms anywhere inside a title always match, even if
+            // some other word happens to start with the term
+            for (int entryIndex = 0; entryIndex < this.titles.length; entryIndex++) {
+                if (this.titles[entryIndex].contains(queryTerm)) termMatches.putIfAbsent(entryIndex, TITLE_WEIGHT);
+            }
+
+            if (matches == null) {
+                matches = termMatches;
+            } else {
+                var intersection = new Int2IntOpenHashMap();
+                for (var match : matches.int2IntEntrySet()) {
+                    if (!termMatches.containsKey(match.getIntKey())) continue;
+                    intersection.put(match.getIntKey(), match.getIntValue() + termMatches.get(match.getIntKey()));
+                }
+
+                matches = intersection;
+            }
+
+            if (matches.isEmpty()) break;
+        }
+
+        var result = new Object2IntOpenHashMap<Entry>();
+        for (var match : matches.int2IntEntrySet()) {
+            result.put(this.entries[match.getIntKey()], match.getIntValue());
+        }
+
+        return result;
+    }
+
+    private static void indexText(Map<String, Int2IntOpenHashMap> postings, int entryIndex, String text, int weight) {
+        for (var term : tokenize(text)) {
+            postings.computeIfAbsent(term, $ -> new Int2IntOpenHashMap()).addTo(entryIndex, weight);
+        }
+    }
+
+    private static String stripMarkdown(String markdown) {
+        markdown = CODE_BLOCK_PATTERN.matcher(markdown).replaceAll(" ");
+        markdown = TEMPLATE_PATTERN.matcher(markdown).replaceAll(" ");
+        markdown = IMAGE_PATTERN.matcher(markdown).replaceAll(" ");
+        markdown = LINK_PATTERN.matcher(markdown).replaceAll("$1");
+        return FORMATTING_PATTERN.matcher(markdown).replaceAll("");
+    }
+
+    /**
+     * Split {@code text} into lower-case terms, treating every
+     * character which is neither a letter nor a digit as a separator
+     */
+    private static List<String> tokenize(String text) {
+        var terms = new ArrayList<String>();
+        text = text.toLowerCase(Locale.ROOT);
+
+        int termStart = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean termCharacter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+
+            if (termCharacter && termStart == -1) {
+                termStart = i;
+            } else if (!termCharacter && termStart != -1) {
+                terms.add(text.substring(termStart, i));
+                termStart = -1;
+            }
+        }
+
+        return terms;
+    }
+}
@@ -141,7 +141,7 @@ public class LavenderBookItem extends Item {
 
     @Environment(EnvType.CLIENT)
     private static void openBookScreen(Book book) {
-        MinecraftClient.getInstance().setScreen(new LavenderBookScreen(book));
+        MinecraftClient.getInstance().setScreen(LavenderBookScreen.create(book));
     }
 
     @Override
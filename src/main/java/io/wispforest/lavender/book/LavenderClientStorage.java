@@ -91,6 +91,7 @@ public class LavenderClientStorage {
 
     public static void markEntryViewed(Book book, Entry entry) {
         viewedEntries.computeIfAbsent(LavenderClient.currentWorldId(), $ -> new HashMap<>()).computeIfAbsent(book.id(), $ -> new HashSet<>()).add(entry.id());
+        book.onEntryViewed(entry);
         save();
     }
 
@@ -0,0 +1,145 @@
+package io.wispforest.lavender.book;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import net.minecraft.item.Item;
+import net.minecraft.registry.Registries;
+import net.minecraft.registry.RegistryKeys;
+import net.minecraft.registry.entry.RegistryEntry;
+import net.minecraft.registry.tag.TagKey;
+import net.minecraft.resource.ResourceFinder;
+import net.minecraft.resource.ResourceManager;
+import net.minecraft.resource.ResourcePack;
+import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A snapshot of every input the book loaders consume: the active resource packs,
+ * the active language, the {@linkplain ResourceVersions versions} of all book, category
+ * and entry resources and the contents of every item tag that was referenced while loading entries.
+ * <p>
+ * If two fingerprints are equal, reloading the library would yield exactly
+ * the same books, categories and entries
+ */
+record LibraryFingerprint(List<String> packs, String language, Map<Identifier, Long> resourceHashes, Map<Identifier, List<Item>> tags) {
+
+    private static final HashFunction RESOURCE_HASH = Hashing.murmur3_128();
+
+    private static final String BOOKS_DIRECTORY = "lavender/books/";
+    private static final String CATEGORIES_DIRECTORY = "lavender/categories/";
+
+    /**
+     * Capture the fingerprint of the resources {@code finders} locate in {@code manager}. This
+     * only reads resources and is safe to call off-thread - the language and tag contents
+     * must be captured beforehand on the client thread
+     *
+     * @param versions         The versions to use for the resources
+     * @param resourceContents If not {@code null}, receives the contents of every resource
+     *                         that had to be read, so that they need not be read a second time
+     * @return The fingerprint, or {@code null} if any resource could not be read
+     */
+    static @Nullable LibraryFingerprint capture(ResourceManager manager, String language, Map<Identifier, List<Item>> tags, ResourceVersions versions, @Nullable Map<Identifier, byte[]> resourceContents, ResourceFinder... finders) {
+        var resourceHashes = new HashMap<Identifier, Long>();
+        for (var finder : finders) {
+            for (var resource : finder.findResources(manager).entrySet()) {
+                try {
+                    resourceHashes.put(resource.getKey(), versions.versionOf(resource.getKey(), resource.getValue(), () -> {
+                        try (var stream = resource.getValue().getInputStream()) {
+                            var contents = stream.readAllBytes();
+
+                            if (resourceContents != null) resourceContents.put(resource.getKey(), contents);
+                            return contents;
+                        }
+                    }));
+                } catch (IOException e) {
+                    return null;
+                }
+            }
+        }
+
+        return new LibraryFingerprint(
+                manager.streamResourcePacks().map(ResourcePack::getName).toList(),
+                language,
+                resourceHashes,
+                tags
+        );
+    }
+
+    static long hashResource(byte[] contents) {
+        return RESOURCE_HASH.hashBytes(contents).asLong();
+    }
+
+    /**
+     * @return A copy of this fingerprint which tracks
+     * the given set of referenced tags instead
+     */
+    LibraryFingerprint withTags(Set<Identifier> referencedTags) {
+        return new LibraryFingerprint(this.packs, this.language, this.resourceHashes, captureTags(referencedTags));
+    }
+
+    /**
+     * @return {@code true} if the books described by {@code bookHashes} are exactly the ones
+     * this fingerprint was captured from, so that the loaded books can be kept as they are
+     */
+    boolean permitsBookReuse(String language, Map<Identifier, List<Item>> tags, Map<Identifier, Long> bookHashes) {
+        return this.language.equals(language)
+                && this.tags.equals(tags)
+                && this.resourcesIn(BOOKS_DIRECTORY).equals(bookHashes);
+    }
+
+    /**
+     * @return {@code true} if the only difference between {@code previous} and this fingerprint
+     * lies in the entry resources, in which case books and categories can be kept and only the
+     * affected entries need to be reloaded
+     */
+    boolean permitsIncrementalReload(LibraryFingerprint previous) {
+        return this.language.equals(previous.language)
+                && this.tags.equals(previous.tags)
+                && this.resourcesIn(BOOKS_DIRECTORY).equals(previous.resourcesIn(BOOKS_DIRECTORY))
+                && this.resourcesIn(CATEGORIES_DIRECTORY).equals(previous.resourcesIn(CATEGORIES_DIRECTORY));
+    }
+
+    /**
+     * @return The resources which are either new in this fingerprint
+     * or whose contents differ from those in {@code previous}
+     */
+    Set<Identifier> changedResources(LibraryFingerprint previous) {
+        var changed = new HashSet<Identifier>();
+        this.resourceHashes.forEach((resourceId, hash) -> {
+            if (!hash.equals(previous.resourceHashes.get(resourceId))) changed.add(resourceId);
+        });
+
+        return changed;
+    }
+
+    private Map<Identifier, Long> resourcesIn(String directory) {
+        var resources = new HashMap<Identifier, Long>();
+        this.resourceHashes.forEach((resourceId, hash) -> {
+            if (resourceId.getPath().startsWith(directory)) resources.put(resourceId, hash);
+        });
+
+        return resources;
+    }
+
+    /**
+     * @return The current contents of every tag in {@code referencedTags},
+     * which must be captured on the client thread
+     */
+    static Map<Identifier, List<Item>> captureTags(Set<Identifier> referencedTags) {
+        var tags = new HashMap<Identifier, List<Item>>();
+        for (var tagId : referencedTags) {
+            tags.put(tagId, Registries.ITEM.getEntryList(TagKey.of(RegistryKeys.ITEM, tagId))
+                    .map(entries -> entries.stream().map(RegistryEntry::value).toList())
+                    .orElse(List.of()));
+        }
+
+        return tags;
+    }
+}
@@ -0,0 +1,340 @@
+package io.wispforest.lavender.book;
+
+import com.google.gson.JsonParseException;
+import io.wispforest.lavender.Lavender;
+import it.unimi.dsi.fastutil.chars.Char2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import net.minecraft.util.Identifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled set of book macros. All macro names are matched in a single
+ * pass using an Aho-Corasick automaton, arguments of parametrized macros
+ * are split with a parser that respects nested parentheses. Where invocations
+ * overlap, the leftmost one is expanded and ties are broken in favor of the
+ * longest macro name
+ * <p>
+ * Macro bodies are expanded once during compilation, which also detects
+ * circular macro invocations. Expanding input is therefore linear in
+ * the length of the input and the produced output
+ */
+final class MacroExpander {
+
+    private static final Pattern MACRO_NAME_PATTERN = Pattern.compile("[a-zA-Z0-9_-]+");
+    private static final Pattern MACRO_ARG_PATTERN = Pattern.compile("\\$\\d+");
+
+    private static final int UNCOMPILED = 0, COMPILING = 1, COMPILED = 2, CIRCULAR = 3;
+
+    private final String[] names;
+    private final String[] bodies;
+    private final boolean[] parametrized;
+
+    private final String[] zeroArgExpansions;
+    private final ParametrizedMacro[] parametrizedExpansions;
+    private final int[] compileStates;
+
+    // --- automaton ---
+
+    private final List<Char2IntOpenHashMap> transitions = new ArrayList<>();
+    private final IntArrayList failureLinks = new IntArrayList();
+    private final IntArrayList outputs = new IntArrayList();
+    private final IntArrayList outputLinks = new IntArrayList();
+    private final IntArrayList depths = new IntArrayList();
+
+    /**
+     * @throws JsonParseException If a parametrized macro has a name
+     *                            which contains invalid characters
+     */
+    MacroExpander(Identifier bookId, Map<String, String> macros) {
+        int macroCount = macros.size();
+
+        this.names = new String[macroCount];
+        this.bodies = new String[macroCount];
+        this.parametrized = new boolean[macroCount];
+
+        int index = 0;
+        for (var macro : macros.entrySet()) {
+            this.names[index] = macro.getKey();
+            this.bodies[index] = macro.getValue();
+            this.parametrized[index] = MACRO_ARG_PATTERN.matcher(macro.getValue()).find();
+
+            if (this.parametrized[index] && !MACRO_NAME_PATTERN.asPredicate().test(macro.getKey())) {
+                throw new JsonParseException("Parametrized macro '" + macro.getKey() + "' contains invalid characters. Parametrized macro names must only contain '[a-zA-Z0-9_-]'");
+            }
+
+            index++;
+        }
+
+        this.zeroArgExpansions = new String[macroCount];
+        this.parametrizedExpansions = new ParametrizedMacro[macroCount];
+        this.compileStates = new int[macroCount];
+
+        this.buildAutomaton();
+
+        for (int macro = 0; macro < macroCount; macro++) {
+            try {
+                this.compile(macro);
+            } catch (CircularMacroException e) {
+                Lavender.LOGGER.warn("Macro '{}' in book {} is part of a circular macro invocation and cannot be expanded", e.macro, bookId);
+            }
+        }
+    }
+
+    /**
+     * Expand all macro invocations in {@code input}
+     *
+     * @throws CircularMacroException If {@code input} invokes a macro which
+     *                                is part of a circular invocation
+     */
+    String expand(String input) {
+        var result = new StringBuilder(input.length());
+        this.expand(input, result);
+
+        return result.toString();
+    }
+
+    // --- compilation ---
+
+    private void compile(int macro) {
+        if (this.compileStates[macro] == COMPILED) return;
+        if (this.compileStates[macro] != UNCOMPILED) throw new CircularMacroException(this.names[macro]);
+
+        this.compileStates[macro] = COMPILING;
+        try {
+            var expandedBody = new StringBuilder();
+            this.expand(this.bodies[macro], expandedBody);
+
+            if (this.parametrized[macro]) {
+                var parts = new ArrayList<String>();
+                var argIndices = new IntArrayList();
+
+                var argMatcher = MACRO_ARG_PATTERN.matcher(expandedBody);
+                int partStart = 0;
+
+                while (argMatcher.find()) {
+                    parts.add(expandedBody.substring(partStart, argMatcher.start()));
+                    argIndices.add(Integer.parseInt(argMatcher.group().substring(1)) - 1);
+
+                    partStart = argMatcher.end();
+                }
+
+                parts.add(expandedBody.substring(partStart));
+                this.parametrizedExpansions[macro] = new ParametrizedMacro(parts, argIndices);
+            } else {
+                this.zeroArgExpansions[macro] = expandedBody.toString();
+            }
+
+            this.compileStates[macro] = COMPILED;
+        } catch (CircularMacroException e) {
+            this.compileStates[macro] = CIRCULAR;
+            throw e;
+        }
+    }
+
+    // --- expansion ---
+
+    private void expand(String input, StringBuilder result) {
+        int state = 0;
+        int copiedUntil = 0;
+
+        int candidate = -1, candidateStart = 0, candidateEnd = 0;
+        List<String> candidateArgs = null;
+
+        for (int i = 0; i <= input.length(); i++) {
+            if (i < input.length()) {
+                state = this.step(state, input.charAt(i));
+
+                // output links are ordered by decreasing length, so the
+                // first invocation that can be expanded starts leftmost
+                var node = this.outputs.getInt(state) != -1 ? state : this.outputLinks.getInt(state);
+                for (; node != -1; node = this.outputLinks.getInt(node)) {
+                    int macro = this.outputs.getInt(node);
+                    int start = i - this.names[macro].length() + 1;
+
+                    if (start < copiedUntil) continue;
+                    if (candidate != -1 && start > candidateStart) break;
+
+                    int end;
+                    List<String> args = null;
+
+                    if (this.parametrized[macro]) {
+                        args = new ArrayList<>();
+                        end = parseArguments(input, i + 1, args);
+                        if (end == -1) continue;
+                    } else {
+                        end = i + 1;
+                    }
+
+                    // a candidate found later with the same start
+                    // always has the longer name
+                    candidate = macro;
+                    candidateStart = start;
+                    candidateEnd = end;
+                    candidateArgs = args;
+
+                    break;
+                }
+            }
+
+            // as long as the automaton is in a state at least as deep as the
+            // candidate, a longer invocation at the same start may still follow
+            if (candidate == -1) continue;
+            if (i < input.length() && i + 1 - this.depths.getInt(state) <= candidateStart) continue;
+
+            if (this.compileStates[candidate] != COMPILED) this.compile(candidate);
+
+            result.append(input, copiedUntil, candidateStart);
+            if (candidateArgs != null) {
+                this.appendParametrized(this.parametrizedExpansions[candidate], candidateArgs, result);
+            } else {
+                result.append(this.zeroArgExpansions[candidate]);
+            }
+
+            copiedUntil = candidateEnd;
+            i = candidateEnd - 1;
+            state = 0;
+
+            candidate = -1;
+            candidateArgs = null;
+        }
+
+        result.append(input, copiedUntil, input.length());
+    }
+
+    private void appendParametrized(ParametrizedMacro macro, List<String> args, StringBuilder result) {
+        var parts = macro.parts();
+        var argIndices = macro.argIndices();
+
+        for (int i = 0; i < argIndices.size(); i++) {
+            result.append(parts.get(i));
+
+            int argIndex = argIndices.getInt(i);
+            if (argIndex >= 0 && argIndex < args.size()) {
+                this.expand(args.get(argIndex), result);
+            }
+        }
+
+        result.append(parts.get(parts.size() - 1));
+    }
+
+    /**
+     * Parse the parenthesized, comma-separated argument list starting at {@code openIndex}
+     * into {@code args}. Commas and parentheses nested inside parentheses are part of the argument
+     * they appear in, and argument lists must not span multiple lines
+     *
+     * @return The index directly after the closing parenthesis, or {@code -1}
+     * if there is no well-formed argument list at {@code openIndex}
+     */
+    private static int parseArguments(String input, int openIndex, List<String> args) {
+        if (openIndex >= input.length() || input.charAt(openIndex) != '(') return -1;
+
+        int depth = 1;
+        int argStart = openIndex + 1;
+
+        for (int i = openIndex + 1; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c == '\n') return -1;
+
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                if (--depth == 0) {
+                    args.add(input.substring(argStart, i));
+                    return i + 1;
+                }
+            } else if (c == ',' && depth == 1) {
+                args.add(input.substring(argStart, i));
+                argStart = i + 1;
+            }
+        }
+
+        return -1;
+    }
+
+    // --- automaton construction ---
+
+    private int step(int state, char c) {
+        while (true) {
+            int next = this.transitions.get(state).getOrDefault(c, -1);
+            if (next != -1) return next;
+            if (state == 0) return 0;
+
+            state = this.failureLinks.getInt(state);
+        }
+    }
+
+    private int addNode(int depth) {
+        this.transitions.add(new Char2IntOpenHashMap());
+        this.depths.add(depth);
+        this.failureLinks.add(0);
+        this.outputs.add(-1);
+        this.outputLinks.add(-1);
+
+        return this.transitions.size() - 1;
+    }
+
+    private void buildAutomaton() {
+        this.addNode(0);
+
+        for (int macro = 0; macro < this.names.length; macro++) {
+            var name = this.names[macro];
+            if (name.isEmpty()) continue;
+
+            int node = 0;
+            for (int i = 0; i < name.length(); i++) {
+                int next = this.transitions.get(node).getOrDefault(name.charAt(i), -1);
+                if (next == -1) {
+                    next = this.addNode(i + 1);
+                    this.transitions.get(node).put(name.charAt(i), next);
+                }
+
+                node = next;
+            }
+
+            this.outputs.set(node, macro);
+        }
+
+        // breadth-first traversal so that failure links
+        // of shallower nodes are always resolved first
+        var queue = new IntArrayList();
+        for (int child : this.transitions.get(0).values()) {
+            queue.add(child);
+        }
+
+        for (int head = 0; head < queue.size(); head++) {
+            int node = queue.getInt(head);
+
+            for (var transition : this.transitions.get(node).char2IntEntrySet()) {
+                int child = transition.getIntValue();
+                int failure = this.step(this.failureLinks.getInt(node), transition.getCharKey());
+
+                this.failureLinks.set(child, failure);
+                this.outputLinks.set(child, this.outputs.getInt(failure) != -1 ? failure : this.outputLinks.getInt(failure));
+
+                queue.add(child);
+            }
+        }
+    }
+
+    private record ParametrizedMacro(List<String> parts, IntList argIndices) {}
+
+    static final class CircularMacroException extends RuntimeException {
+
+        final String macro;
+
+        CircularMacroException(String macro) {
+            super("Macro '" + macro + "' is part of a circular macro invocation");
+            this.macro = macro;
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
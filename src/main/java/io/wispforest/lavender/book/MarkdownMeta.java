@@ -0,0 +1,73 @@
+package io.wispforest.lavender.book;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import net.fabricmc.fabric.api.resource.conditions.v1.ResourceConditions;
+import net.minecraft.util.JsonHelper;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The frontmatter of a category or entry, reduced to the properties the content loader
+ * consumes. This is what the persistent content cache stores, so that cached markdown
+ * never has to be parsed as JSON again
+ *
+ * @param conditions The serialized resource conditions of the frontmatter, if it declared any
+ */
+record MarkdownMeta(
+        String title,
+        @Nullable String icon,
+        @Nullable String iconSprite,
+        boolean secret,
+        int ordinal,
+        @Nullable String category,
+        @Nullable String parent,
+        List<String> associatedItems,
+        List<String> requiredAdvancements,
+        @Nullable String conditions
+) {
+
+    static MarkdownMeta fromJson(JsonObject meta) {
+        var associatedItems = new ArrayList<String>();
+        for (var itemElement : JsonHelper.getArray(meta, "associated_items", new JsonArray())) {
+            associatedItems.add(itemElement.getAsString());
+        }
+
+        var requiredAdvancements = new ArrayList<String>();
+        for (var advancementElement : JsonHelper.getArray(meta, "required_advancements", new JsonArray())) {
+            if (!advancementElement.isJsonPrimitive()) continue;
+            requiredAdvancements.add(advancementElement.getAsString());
+        }
+
+        var conditions = meta.get(ResourceConditions.CONDITIONS_KEY);
+
+        return new MarkdownMeta(
+                JsonHelper.getString(meta, "title"),
+                JsonHelper.getString(meta, "icon", null),
+                JsonHelper.getString(meta, "icon_sprite", null),
+                JsonHelper.getBoolean(meta, "secret", false),
+                JsonHelper.getInt(meta, "ordinal", Integer.MAX_VALUE),
+                JsonHelper.getString(meta, "category", null),
+                JsonHelper.getString(meta, "parent", null),
+                List.copyOf(associatedItems),
+                List.copyOf(requiredAdvancements),
+                conditions != null ? conditions.toString() : null
+        );
+    }
+
+    /**
+     * @return Whether the resource conditions of the frontmatter are met
+     * in the current environment, or {@code true} if it declared none
+     */
+    boolean conditionsMet() {
+        if (this.conditions == null) return true;
+
+        var conditionsObject = new JsonObject();
+        conditionsObject.add(ResourceConditions.CONDITIONS_KEY, JsonParser.parseString(this.conditions));
+
+        return ResourceConditions.objectMatchesConditions(conditionsObject);
+    }
+}
@@ -0,0 +1,93 @@
+package io.wispforest.lavender.book;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import net.fabricmc.fabric.api.resource.ModResourcePack;
+import net.fabricmc.loader.api.FabricLoader;
+import net.fabricmc.loader.api.metadata.ModOrigin;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.resource.InputSupplier;
+import net.minecraft.resource.Resource;
+import net.minecraft.resource.ResourcePack;
+import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Derives versions for resources, which change whenever the contents of a resource might have
+ * changed. Where the pack providing a resource can be identified as an immutable file - a mod
+ * outside of a development environment or a zipped resource pack - the version is derived from
+ * the identity, size and modification time of that file, so the resource itself need not be read.
+ * All other resources are versioned by the hash of their contents
+ * <p>
+ * Pack stamps are computed once per instance, which should therefore not outlive a single reload
+ */
+final class ResourceVersions {
+
+    private static final HashFunction STAMP_HASH = Hashing.murmur3_128();
+
+    private final Map<ResourcePack, Optional<String>> packStamps = new ConcurrentHashMap<>();
+
+    /**
+     * @param contents Supplies the contents of {@code resource}, only
+     *                 invoked if its pack cannot be identified
+     */
+    long versionOf(Identifier location, Resource resource, InputSupplier<byte[]> contents) throws IOException {
+        var stamp = this.packStamps.computeIfAbsent(resource.getPack(), ResourceVersions::stampOf);
+        if (stamp.isEmpty()) return LibraryFingerprint.hashResource(contents.get());
+
+        return STAMP_HASH.newHasher()
+                .putString(stamp.get(), StandardCharsets.UTF_8)
+                .putChar('|')
+                .putString(location.toString(), StandardCharsets.UTF_8)
+                .hash().asLong();
+    }
+
+    private static Optional<String> stampOf(ResourcePack pack) {
+        // mods are edited in place during development
+        // without their version or origin changing
+        if (pack instanceof ModResourcePack modPack && !FabricLoader.getInstance().isDevelopmentEnvironment()) {
+            var metadata = modPack.getFabricModMetadata();
+            var container = FabricLoader.getInstance().getModContainer(metadata.getId());
+            if (container.isEmpty() || container.get().getOrigin().getKind() != ModOrigin.Kind.PATH) return Optional.empty();
+
+            var stamp = new StringBuilder("mod/").append(metadata.getId()).append('/').append(metadata.getVersion().getFriendlyString());
+            for (var path : container.get().getOrigin().getPaths()) {
+                var fileStamp = fileStamp(path);
+                if (fileStamp == null) return Optional.empty();
+
+                stamp.append('/').append(fileStamp);
+            }
+
+            return Optional.of(stamp.toString());
+        }
+
+        var name = pack.getName();
+        if (name.startsWith("file/")) {
+            var fileStamp = fileStamp(MinecraftClient.getInstance().getResourcePackDir().resolve(name.substring("file/".length())));
+            return fileStamp != null ? Optional.of(name + "/" + fileStamp) : Optional.empty();
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * @return The size and modification time of {@code file}, or {@code null} if it
+     * is not a regular file - directories may change without their own attributes changing
+     */
+    private static @Nullable String fileStamp(Path file) {
+        try {
+            if (!Files.isRegularFile(file)) return null;
+            return Files.size(file) + "@" + Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
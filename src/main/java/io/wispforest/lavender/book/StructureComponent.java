@@ -1,5 +1,6 @@
 package io.wispforest.lavender.book;
 
+import io.wispforest.lavender.client.StructureMeshCache;
 import io.wispforest.lavender.client.StructureOverlayRenderer;
 import io.wispforest.lavender.structure.LavenderStructures;
 import io.wispforest.lavender.structure.StructureTemplate;
@@ -13,8 +14,6 @@ import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.gui.screen.Screen;
 import net.minecraft.client.gui.tooltip.TooltipComponent;
 import net.minecraft.client.render.DiffuseLighting;
-import net.minecraft.client.render.LightmapTextureManager;
-import net.minecraft.client.render.OverlayTexture;
 import net.minecraft.text.Text;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.Util;
@@ -54,7 +53,6 @@ public class StructureComponent extends BaseComponent {
     @Override
     public void draw(OwoUIDrawContext context, int mouseX, int mouseY, float partialTicks, float delta) {
         var client = MinecraftClient.getInstance();
-        var entityBuffers = client.getBufferBuilders().getEntityVertexConsumers();
 
         float scale = Math.min(this.width, this.height);
         scale /= Math.max(structure.xSize, Math.max(structure.ySize, structure.zSize));
@@ -70,27 +68,11 @@ public class StructureComponent extends BaseComponent {
         matrices.multiply(RotationAxis.POSITIVE_Y.rotationDegrees(this.rotation));
         matrices.translate(this.structure.xSize / -2f, this.structure.ySize / -2f, this.structure.zSize / -2f);
 
-        structure.forEachPredicate((blockPos, predicate) -> {
-            if (this.visibleLayer != -1 && this.visibleLayer != blockPos.getY()) return;
-
-            matrices.push();
-            matrices.translate(blockPos.getX(), blockPos.getY(), blockPos.getZ());
-
-            client.getBlockRenderManager().renderBlockAsEntity(
-                    predicate.preview(), matrices, entityBuffers,
-                    LightmapTextureManager.MAX_BLOCK_LIGHT_COORDINATE,
-                    OverlayTexture.DEFAULT_UV
-            );
-
-            matrices.pop();
-        });
+        StructureMeshCache.drawPreview(this.structure, this.visibleLayer, matrices);
+        DiffuseLighting.enableGuiDepthLighting();
 
         matrices.pop();
 
-        DiffuseLighting.disableGuiDepthLighting();
-        entityBuffers.draw();
-        DiffuseLighting.enableGuiDepthLighting();
-
         if (this.placeable) {
             if (StructureOverlayRenderer.isShowingOverlay(this.structure.id)) {
                 context.drawText(client.textRenderer, Text.translatable("text.lavender.structure_component.active_overlay_hint"), this.x + this.width - 5 - client.textRenderer.getWidth("⚓"), this.y + this.height - 9 - 5, 0, false);
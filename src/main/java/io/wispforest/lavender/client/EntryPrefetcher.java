@@ -0,0 +1,167 @@
+package io.wispforest.lavender.client;
+
+import io.wispforest.lavender.book.Book;
+import io.wispforest.lavender.book.Entry;
+import io.wispforest.lavender.md.ParsedMarkdownCache;
+import io.wispforest.lavender.md.features.PageBreakFeature;
+import io.wispforest.lavendermd.Parser;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.Util;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the entries a player is most likely to open next - the targets of internal links in the
+ * current entry and its neighbours in the category index - so that navigating to them only has to
+ * compile components. Images referenced by those entries are loaded afterwards, one per tick
+ * <p>
+ * Loading the content of those entries, splitting it into pages and finding the images
+ * it references happens on the IO worker. Lexing and parsing does not, since lexers of
+ * features like recipes and item tags read game state - those run on the client thread
+ * instead, in slices of at most {@link #PARSE_BUDGET_NANOS} per tick
+ * <p>
+ * Prefetching is opt-in per book and bounded, both in the amount of entries and content it
+ * processes per opened entry. Only one prefetch task runs at a time and tasks which have been
+ * superseded by opening another entry are abandoned
+ */
+public class EntryPrefetcher {
+
+    private static final int MAX_PREFETCHED_ENTRIES = 6;
+    private static final int MAX_PREFETCHED_CHARS = 48_000;
+    private static final int MAX_PRELOADED_IMAGES = 8;
+    private static final long PARSE_BUDGET_NANOS = 2_000_000;
+
+    private static final Pattern ENTRY_LINK_PATTERN = Pattern.compile("]\\(\\^([^)#\\s]+)");
+    private static final Pattern IMAGE_PATTERN = Pattern.compile("!\\[[^]]*]\\(([^),\\s]+)");
+
+    private static final Deque<Identifier> PENDING_IMAGES = new ArrayDeque<>();
+    private static final Deque<PendingPage> PENDING_PAGES = new ArrayDeque<>();
+    private static @Nullable LavenderBookScreen parsingScreen = null;
+
+    private static CompletableFuture<?> currentTask = CompletableFuture.completedFuture(null);
+    private static volatile int generation = 0;
+
+    public static void initialize() {
+        ClientTickEvents.END_CLIENT_TICK.register(client -> {
+            parsePendingPages(client);
+
+            var image = PENDING_IMAGES.poll();
+            if (image == null) return;
+
+            client.getTextureManager().getTexture(image);
+        });
+    }
+
+    /**
+     * Start prefetching the entries which are likely to be opened after {@code entry}, abandoning
+     * any previous prefetch. Does nothing if the book of {@code screen} has not opted into prefetching
+     */
+    static void prefetch(LavenderBookScreen screen, Entry entry) {
+        if (screen.isOverlay || !screen.book.prefetchEntries()) return;
+
+        int taskGeneration = ++generation;
+        PENDING_IMAGES.clear();
+        PENDING_PAGES.clear();
+        parsingScreen = null;
+
+        var targets = collectTargets(screen.book, entry);
+        if (targets.isEmpty()) return;
+
+        currentTask = currentTask.handleAsync(($, throwable) -> {
+            var pages = new ArrayList<PendingPage>();
+            var images = new LinkedHashSet<Identifier>();
+            int prefetchedChars = 0;
+
+            for (var target : targets) {
+                if (generation != taskGeneration) return null;
+
+                var content = target.content();
+                if ((prefetchedChars += content.length()) > MAX_PREFETCHED_CHARS) break;
+
+                for (var page : PageBreakFeature.splitPages(content)) {
+                    pages.add(new PendingPage(target.id(), page));
+                }
+
+                var imageMatcher = IMAGE_PATTERN.matcher(content);
+                while (imageMatcher.find() && images.size() < MAX_PRELOADED_IMAGES) {
+                    var imageId = Identifier.tryParse(imageMatcher.group(1));
+                    if (imageId != null) images.add(imageId);
+                }
+            }
+
+            MinecraftClient.getInstance().execute(() -> {
+                if (generation != taskGeneration) return;
+
+                parsingScreen = screen;
+                PENDING_PAGES.addAll(pages);
+                PENDING_IMAGES.addAll(images);
+            });
+
+            return null;
+        }, Util.getIoWorkerExecutor());
+    }
+
+    private static void parsePendingPages(MinecraftClient client) {
+        if (PENDING_PAGES.isEmpty()) return;
+
+        // the parser belongs to the screen, don't
+        // keep it alive once that has been closed
+        var screen = parsingScreen;
+        if (screen == null || client.currentScreen != screen) {
+            PENDING_PAGES.clear();
+            parsingScreen = null;
+            return;
+        }
+
+        Function<String, Parser.Node> parser = screen::parseMarkdownTree;
+        long deadline = System.nanoTime() + PARSE_BUDGET_NANOS;
+
+        PendingPage page;
+        while (System.nanoTime() < deadline && (page = PENDING_PAGES.poll()) != null) {
+            ParsedMarkdownCache.getOrParse(screen.book.id(), page.entryId(), page.markdown(), parser);
+        }
+
+        if (PENDING_PAGES.isEmpty()) parsingScreen = null;
+    }
+
+    private static List<Entry> collectTargets(Book book, Entry entry) {
+        var targets = new LinkedHashSet<Entry>();
+
+        // neighbours first, paging through the
+        // index is the most common way to navigate
+        var category = entry.category() != null ? book.categoryById(entry.category()) : null;
+        var siblings = category != null ? book.entriesByCategory(category) : null;
+        if (siblings != null) {
+            var ordered = siblings.stream()
+                    .filter(book::isVisible)
+                    .sorted((o1, o2) -> AlphanumComparator.compare(o1.title(), o2.title()))
+                    .sorted(Comparator.comparingInt(Entry::ordinal))
+                    .toList();
+
+            int index = ordered.indexOf(entry);
+            if (index != -1) {
+                if (index + 1 < ordered.size()) targets.add(ordered.get(index + 1));
+                if (index > 0) targets.add(ordered.get(index - 1));
+            }
+        }
+
+        var linkMatcher = ENTRY_LINK_PATTERN.matcher(entry.content());
+        while (linkMatcher.find() && targets.size() < MAX_PREFETCHED_ENTRIES) {
+            var linkId = Identifier.tryParse(linkMatcher.group(1));
+            if (linkId == null) continue;
+
+            var linked = book.entryById(linkId);
+            if (linked != null && linked != entry && book.isVisible(linked)) targets.add(linked);
+        }
+
+        return new ArrayList<>(targets);
+    }
+
+    private record PendingPage(Identifier entryId, String markdown) {}
+}
@@ -6,10 +6,13 @@ import com.mojang.blaze3d.systems.VertexSorter;
 import io.wispforest.lavender.Lavender;
 import io.wispforest.lavender.book.*;
 import io.wispforest.lavender.md.ItemListComponent;
+import io.wispforest.lavender.md.ParsedMarkdownCache;
 import io.wispforest.lavender.md.compiler.BookCompiler;
 import io.wispforest.lavender.md.features.*;
+import io.wispforest.lavender.mixin.MarkdownProcessorAccessor;
 import io.wispforest.lavendermd.MarkdownFeature;
 import io.wispforest.lavendermd.MarkdownProcessor;
+import io.wispforest.lavendermd.Parser;
 import io.wispforest.lavendermd.feature.*;
 import io.wispforest.owo.Owo;
 import io.wispforest.owo.ops.TextOps;
@@ -24,6 +27,8 @@ import io.wispforest.owo.ui.parsing.UIModel;
 import io.wispforest.owo.ui.parsing.UIParsing;
 import io.wispforest.owo.ui.util.CommandOpenedScreen;
 import io.wispforest.owo.ui.util.UISounds;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.gui.DrawContext;
 import net.minecraft.client.gui.screen.Screen;
@@ -39,7 +44,6 @@ import net.minecraft.util.Formatting;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.Util;
 import net.minecraft.util.math.MathHelper;
-import org.apache.commons.lang3.mutable.MutableInt;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.joml.Matrix4f;
@@ -47,23 +51,39 @@ import org.lwjgl.glfw.GLFW;
 
 import java.util.*;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements CommandOpenedScreen {
 
     private static final Identifier DEFAULT_BOOK_TEXTURE = Lavender.id("textures/gui/brown_book.png");
+    private static final long SEARCH_DEBOUNCE_MS = 150;
+    private static final int BOOK_AREA_MARGIN = 16;
 
     private static final Map<Identifier, Map<RecipeType<?>, RecipeFeature.RecipePreviewBuilder<?>>> RECIPE_HANDLERS = new HashMap<>();
     private static final Map<Identifier, FeatureProvider> FEATURE_PROVIDERS = new HashMap<>();
+    private static final Map<Identifier, BookProcessor> PROCESSORS = new HashMap<>();
 
     private static final Map<Identifier, List<NavFrame.Replicator>> NAV_TRAILS = new HashMap<>();
 
+    // the most recently closed screen, which is reopened as-is
+    // if nothing it displays could have changed in the meantime. the
+    // memory it holds on to is bounded by proxy, through the amount
+    // of pages across its navigation stack
+    private static final int MAX_RETAINED_PAGES = 256;
+    private static @Nullable RetainedScreen retainedScreen = null;
+
+    // wrapped line counts of entry titles in the index, which
+    // only change when fonts are reloaded with the resources
+    private static final Object2IntMap<String> TITLE_LINE_COUNTS = Util.make(new Object2IntOpenHashMap<>(), map -> map.defaultReturnValue(-1));
+    private static final Object2IntMap<String> NOTIFIED_TITLE_LINE_COUNTS = Util.make(new Object2IntOpenHashMap<>(), map -> map.defaultReturnValue(-1));
+
     private final BookCompiler.ComponentSource bookComponentSource = LavenderBookScreen.this::template;
 
     public final Book book;
     public final boolean isOverlay;
 
-    private final MarkdownProcessor<ParentComponent> processor;
+    private final BookProcessor processor;
     private Window window;
     private int scaleFactor;
 
@@ -77,27 +97,16 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
     private FlowLayout bookmarkPanel;
 
     private final Deque<NavFrame> navStack = new ArrayDeque<>();
+    private long searchChangeTime = -1;
+    private int contentVersion = 0;
+    private boolean reopened = false;
 
     public LavenderBookScreen(Book book, boolean isOverlay) {
         super(FlowLayout.class, Lavender.id("book"));
         this.book = book;
         this.isOverlay = isOverlay;
 
-        var processor = MarkdownProcessor.richText(0)
-                .copyWith(() -> new BookCompiler(this.bookComponentSource))
-                .copyWith(
-                        new ImageFeature(), new BlockStateFeature(), new ItemStackFeature(), new EntityFeature(),
-                        new PageBreakFeature(), new OwoUITemplateFeature(this.bookComponentSource),
-                        new RecipeFeature(this.bookComponentSource, RECIPE_HANDLERS.get(this.book.id())),
-                        new StructureFeature(this.bookComponentSource), new KeybindFeature(),
-                        new ItemTagFeature(), new OwoUIModelFeature(), new TranslationsFeature()
-                );
-
-        if (FEATURE_PROVIDERS.get(book.id()) != null) {
-            processor = processor.copyWith(FEATURE_PROVIDERS.get(book.id()).createFeatures(this.bookComponentSource).toArray(MarkdownFeature[]::new));
-        }
-
-        this.processor = processor;
+        this.processor = PROCESSORS.computeIfAbsent(book.id(), BookProcessor::new);
     }
 
     public LavenderBookScreen(Book book) {
@@ -115,11 +124,59 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
         this.width = this.window.getScaledWidth();
         this.height = this.window.getScaledHeight();
 
+        // closing the screen disposed the cursor state of its
+        // adapter, so a reopened screen builds a new one - its
+        // nav stack and the pages built so far are kept
+        if (this.reopened) {
+            this.reopened = false;
+            this.uiAdapter = null;
+        }
+
         super.init();
 
         this.window.setScaleFactor(gameScale);
     }
 
+    /**
+     * Create a screen for {@code book}. If the last closed screen belonged to the same book
+     * and is still up-to-date, its navigation stack is reused instead - this keeps all pages
+     * it had already built, while the component tree around them is rebuilt
+     */
+    public static LavenderBookScreen create(Book book) {
+        var retained = retainedScreen;
+        retainedScreen = null;
+
+        if (retained != null && retained.isValidFor(book)) {
+            retained.screen.reopened = true;
+            return retained.screen;
+        }
+
+        return new LavenderBookScreen(book);
+    }
+
+    protected ParentComponent compileMarkdown(@Nullable Identifier sourceId, String markdown) {
+        // the processor is shared by all screens of this book, so it must
+        // not keep this screen and its component tree alive once done
+        var previousScreen = this.processor.bind(this);
+        try {
+            if (sourceId == null) return this.processor.markdown.process(markdown);
+
+            var tree = ParsedMarkdownCache.getOrParse(this.book.id(), sourceId, markdown, this::parseMarkdownTree);
+
+            var compiler = this.processor.compilerFactory.get();
+            tree.visit(compiler);
+
+            return compiler.compile();
+        } finally {
+            this.processor.bind(previousScreen);
+        }
+    }
+
+    Parser.Node parseMarkdownTree(String markdown) {
+        var processor = (MarkdownProcessorAccessor) this.processor.markdown;
+        return processor.lavender$getParser().parse(processor.lavender$getLexer().lex(markdown));
+    }
+
     protected <C extends Component> C template(Class<C> expectedComponentClass, String name) {
         return this.template(expectedComponentClass, name, Map.of());
     }
@@ -160,6 +217,8 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
         (this.returnButton = this.component(ButtonComponent.class, "back-button")).onPress(button -> {
             if (Screen.hasShiftDown()) {
                 while (this.navStack.size() > 1) this.navStack.pop();
+
+                this.replicateCurrentFrame();
                 this.rebuildContent(this.book.flippingSound());
             } else {
                 this.navPop();
@@ -184,35 +243,53 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
 
         this.searchBox = this.component(TextBoxComponent.class, "search-box");
         searchBox.visible = searchBox.active = false;
-        searchBox.onChanged().subscribe(value -> {
-            var frame = this.currentNavFrame();
-
-            this.navStack.pop();
-            this.navPush(new NavFrame(frame.pageSupplier.replicator().apply(this), frame.selectedPage), true);
+        searchBox.onChanged().subscribe(value -> this.searchChangeTime = Util.getMeasuringTimeMs());
 
-            this.rebuildContent(null);
-        });
-
-        var navTrail = getNavTrail(this.book);
-        for (int i = navTrail.size() - 1; i >= 0; i--) {
-            var frame = navTrail.get(i).createFrame(this);
-            if (frame == null) continue;
+        // a reopened screen still has its navigation stack,
+        // only fresh ones need to replicate the stored trail
+        if (this.navStack.isEmpty()) {
+            var navTrail = getNavTrail(this.book);
+            for (int i = navTrail.size() - 1; i >= 0; i--) {
+                var frame = navTrail.get(i).createFrame(this);
+                if (frame == null) continue;
 
-            this.navPush(frame, true);
-        }
+                this.navPush(frame, true);
+            }
 
-        if (this.book.introEntry() != null && !LavenderClientStorage.wasBookOpened(this.book.id())) {
-            this.navPush(new NavFrame(new EntryPageSupplier(this, this.book.introEntry()), 0), true);
+            if (this.book.introEntry() != null && !LavenderClientStorage.wasBookOpened(this.book.id())) {
+                this.navPush(new NavFrame(new EntryPageSupplier(this, this.book.introEntry()), 0), true);
+            }
         }
 
         LavenderClientStorage.markBookOpened(this.book.id());
         this.rebuildContent(!this.isOverlay ? this.book.openSound() : null);
     }
 
+    /**
+     * Display the pages of the current nav frame. This reuses the frame's
+     * supplier, so turning pages never recompiles anything - use
+     * {@link #replicateCurrentFrame()} first if the supplier might be stale
+     */
     private void rebuildContent(@Nullable SoundEvent sound) {
+        this.displayContent(this.currentNavFrame().pageSupplier, sound);
+    }
+
+    /**
+     * Replace the supplier of the current nav frame with a freshly replicated one, so that
+     * it picks up state which changed since it was built (like entries which have been viewed
+     * in the meantime). If the frame cannot be replicated anymore, it is kept as-is
+     */
+    private void replicateCurrentFrame() {
+        var frame = this.navStack.pop();
+        var replicated = frame.replicator().createFrame(this);
+
+        this.navStack.push(replicated != null ? replicated : frame);
+    }
+
+    private void displayContent(PageSupplier pageSupplier, @Nullable SoundEvent sound) {
         if (sound != null) this.client.player.playSound(sound, 1f, 1f);
+        this.contentVersion++;
 
-        var pageSupplier = this.currentNavFrame().replicator().pageSupplier.apply(this);
         int selectedPage = this.currentNavFrame().selectedPage;
 
         if (selectedPage >= pageSupplier.pageCount()) {
@@ -333,9 +410,33 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
         if (this.navStack.size() <= 1) return;
 
         this.navStack.pop();
+        this.replicateCurrentFrame();
+
         this.rebuildContent(this.book.flippingSound());
     }
 
+    @Override
+    public void tick() {
+        super.tick();
+
+        // searching only re-filters the current supplier's
+        // index, debounced so that typing a word does this once
+        if (this.searchChangeTime != -1 && Util.getMeasuringTimeMs() - this.searchChangeTime >= SEARCH_DEBOUNCE_MS) {
+            this.searchChangeTime = -1;
+
+            var pageSupplier = this.currentNavFrame().pageSupplier;
+            pageSupplier.updateSearch(this.searchBox.getText());
+            this.displayContent(pageSupplier, null);
+        }
+
+        var frame = this.currentNavFrame();
+        frame.pageSupplier.tick();
+
+        if (!this.isOverlay) {
+            this.nextButton.active(frame.selectedPage + 2 < frame.pageSupplier.pageCount());
+        }
+    }
+
     @Override
     public void render(DrawContext context, int mouseX, int mouseY, float delta) {
         mouseX = (int) (mouseX * this.window.getScaleFactor() / this.scaleFactor);
@@ -361,6 +462,53 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
         this.window.setScaleFactor(gameScale);
     }
 
+    /**
+     * @return The area covered by the book and its controls,
+     * in the scaled coordinates this screen was laid out in
+     */
+    public PositionedRectangle bookArea() {
+        var panel = this.component(FlowLayout.class, "primary-panel");
+        return PositionedRectangle.of(
+                panel.x() - BOOK_AREA_MARGIN,
+                panel.y() - BOOK_AREA_MARGIN,
+                panel.width() + BOOK_AREA_MARGIN * 2,
+                panel.height() + BOOK_AREA_MARGIN * 2
+        );
+    }
+
+    /**
+     * Render only the {@link #bookArea()} of this screen, stretched across the currently
+     * bound framebuffer which must be {@code width} by {@code height} pixels in size.
+     * While rendering, the window reports that size and a matching scale factor so that
+     * scissoring and pixel-aligned rendering map onto the framebuffer correctly
+     */
+    void renderBookArea(DrawContext context, int width, int height) {
+        var area = this.bookArea();
+
+        int windowWidth = this.window.getFramebufferWidth(), windowHeight = this.window.getFramebufferHeight();
+        double gameScale = this.window.getScaleFactor();
+
+        this.window.setFramebufferWidth(width);
+        this.window.setFramebufferHeight(height);
+        this.window.setScaleFactor(width / (double) area.width());
+
+        RenderSystem.backupProjectionMatrix();
+        RenderSystem.setProjectionMatrix(new Matrix4f().setOrtho(0, area.width(), area.height(), 0, 1000, 21000), VertexSorter.BY_Z);
+
+        context.getMatrices().push();
+        context.getMatrices().translate(-area.x(), -area.y(), 0);
+
+        super.render(context, -69, -69, 0);
+        context.draw();
+
+        context.getMatrices().pop();
+        RenderSystem.restoreProjectionMatrix();
+
+        this.window.setFramebufferWidth(windowWidth);
+        this.window.setFramebufferHeight(windowHeight);
+        this.window.setScaleFactor(gameScale);
+    }
+
     @Override
     public boolean charTyped(char chr, int modifiers) {
         if (super.charTyped(chr, modifiers)) return true;
@@ -448,6 +596,27 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
         }
 
         NAV_TRAILS.put(this.book.id(), trail);
+        if (this.isOverlay) return;
+
+        OffhandBookRenderer.invalidate(this.book);
+        retainedScreen = this.fitsRetainedPageLimit() ? new RetainedScreen(this) : null;
+    }
+
+    private boolean fitsRetainedPageLimit() {
+        int retainedPages = 0;
+        for (var frame : this.navStack) {
+            retainedPages += frame.pageSupplier.pageCount();
+        }
+
+        return retainedPages <= MAX_RETAINED_PAGES;
+    }
+
+    /**
+     * Drop the most recently closed screen, so
+     * that the next one is built from scratch
+     */
+    static void clearRetainedScreen() {
+        retainedScreen = null;
     }
 
     @Override
@@ -455,6 +624,32 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
         return false;
     }
 
+    /**
+     * Drop cached layout measurements, which
+     * depend on the currently loaded fonts
+     */
+    static void clearLayoutCaches() {
+        TITLE_LINE_COUNTS.clear();
+        NOTIFIED_TITLE_LINE_COUNTS.clear();
+    }
+
+    /**
+     * Drop the markdown processors of all books, so that they
+     * are assembled again the next time a book is opened
+     */
+    static void clearProcessors() {
+        PROCESSORS.clear();
+        ParsedMarkdownCache.clear();
+    }
+
+    /**
+     * @return A counter which is incremented whenever this
+     * screen changes the content it displays
+     */
+    public int contentVersion() {
+        return this.contentVersion;
+    }
+
     public OwoUIAdapter<?> adapter() {
         return this.uiAdapter;
     }
@@ -472,6 +667,12 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
      */
     public static void pushEntry(Book book, Entry entry) {
         getNavTrail(book).add(0, new NavFrame.Replicator(screen -> new EntryPageSupplier(screen, entry), 0));
+
+        // the frame is only built once a screen is opened, building it
+        // on the closed retained screen would mark the entry viewed early
+        if (retainedScreen != null && retainedScreen.screen.book == book) {
+            retainedScreen = null;
+        }
     }
 
     /**
@@ -491,6 +692,7 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
      */
     public static <R extends Recipe<?>> void registerRecipePreviewBuilder(Identifier bookId, RecipeType<R> recipeType, RecipeFeature.RecipePreviewBuilder<R> builder) {
         RECIPE_HANDLERS.computeIfAbsent(bookId, $ -> new HashMap<>()).put(recipeType, builder);
+        clearProcessors();
     }
 
     /**
@@ -503,12 +705,14 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
      */
     public static void registerFeatureFactory(Identifier bookId, FeatureProvider provider) {
         FEATURE_PROVIDERS.put(bookId, provider);
+        clearProcessors();
     }
 
     public static abstract class PageSupplier {
 
         protected final LavenderBookScreen context;
         protected final List<Component> pages = new ArrayList<>();
+        protected @Nullable EntryIndex entryIndex = null;
 
         protected PageSupplier(LavenderBookScreen context) {
             this.context = context;
@@ -519,13 +723,31 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
         }
 
         public Component getPageContent(int pageIndex) {
-            return this.pages.get(pageIndex);
+            var page = this.pages.get(pageIndex);
+            if (this.entryIndex != null) this.entryIndex.materialize(page);
+
+            return page;
         }
 
         public boolean searchable() {
             return false;
         }
 
+        /**
+         * Re-filter the entry index of this supplier, if it has one, against
+         * {@code searchText}. This reuses the index components which were
+         * built when the supplier was created and only redistributes them across pages
+         */
+        public void updateSearch(String searchText) {
+            if (this.entryIndex != null) this.entryIndex.layout(searchText);
+        }
+
+        /**
+         * Called every tick while this supplier is displayed, to
+         * do work which can be spread across multiple frames
+         */
+        void tick() {}
+
         abstract boolean canMerge(PageSupplier other);
 
         abstract Function<LavenderBookScreen, @Nullable PageSupplier> replicator();
@@ -543,7 +765,16 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
         }
 
         protected ParentComponent parseMarkdown(String markdown) {
-            var component = this.context.processor.process(markdown);
+            return this.parseMarkdown(null, markdown);
+        }
+
+        /**
+         * Compile {@code markdown} into components. If {@code sourceId} is given, the parsed
+         * tree of {@code markdown} is cached under it so that only compilation has to
+         * be repeated when the same content is displayed again
+         */
+        protected ParentComponent parseMarkdown(@Nullable Identifier sourceId, String markdown) {
+            var component = this.context.compileMarkdown(sourceId, markdown);
             component.forEachDescendant(descendant -> {
                 if (descendant instanceof BookCompiler.BookLabelComponent label) {
                     label.setOwner(this.context);
@@ -581,83 +812,12 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
         }
 
         protected List<FlowLayout> buildEntryIndex(Collection<Entry> entries, boolean respectOrdinals, int... pageSizes) {
-            var indexSections = new ArrayList<FlowLayout>();
-            var currentSectionHeight = new MutableInt(0);
-            indexSections.add(Containers.verticalFlow(Sizing.fill(100), Sizing.content()));
-
-            var searchText = this.context.searchBox.getText().strip();
-            var filter = searchText.isEmpty() ? new String[0] : searchText.split(" ");
-            for (int i = 0; i < filter.length; i++) {
-                filter[i] = filter[i].strip().toLowerCase(Locale.ROOT);
-            }
-
-            entries.stream()
-                    .sorted((o1, o2) -> AlphanumComparator.compare(o1.title(), o2.title()))
-                    .sorted(respectOrdinals ? Comparator.comparingInt(Entry::ordinal) : (o1, o2) -> 0)
-                    .sorted(Comparator.comparing(entry -> !entry.canPlayerView(this.context.client.player)))
-                    .forEach(entry -> {
-                        boolean entryVisible = entry.canPlayerView(this.context.client.player);
-                        if (entry.secret() && !entryVisible) {
-                            return;
-                        }
-
-                        if (filter.length > 0) {
-                            if (!entryVisible) return;
-
-                            var entryTitle = entry.title().toLowerCase(Locale.ROOT);
-                            for (var term : filter) {
-                                if (!entryTitle.contains(term)) return;
-                            }
-                        }
-
-                        FlowLayout indexItem;
-                        boolean hasUnreadNotification;
-                        if (entryVisible) {
-                            hasUnreadNotification = this.context.book.shouldDisplayUnreadNotification(entry);
-
-                            indexItem = this.context.template(FlowLayout.class, "index-item");
-                            indexItem.childById(StackLayout.class, "icon-anchor").child(entry.iconFactory().apply(Sizing.fill()));
-
-                            var label = indexItem.childById(LabelComponent.class, "index-label");
-
-                            label.text(Text.literal(entry.title()).styled($ -> $.withFont(MinecraftClient.UNICODE_FONT_ID).withItalic(false && hasUnreadNotification)));
-                            label.mouseDown().subscribe((mouseX, mouseY, button) -> {
-                                if (button != GLFW.GLFW_MOUSE_BUTTON_LEFT) return false;
-
-                                this.context.navPush(new EntryPageSupplier(this.context, entry));
-                                UISounds.playInteractionSound();
-                                return true;
-                            });
-
-                            var animation = label.color().animate(150, Easing.SINE, Color.ofFormatting(Formatting.GOLD));
-                            label.mouseEnter().subscribe(animation::forwards);
-                            label.mouseLeave().subscribe(animation::backwards);
-
-                            if (hasUnreadNotification) {
-                                indexItem.child(new UnreadNotificationComponent(this.context.bookTexture(), false));
-                            }
-                        } else {
-                            hasUnreadNotification = false;
-
-                            indexItem = this.context.template(FlowLayout.class, "locked-index-item");
-                            indexItem.childById(LabelComponent.class, "index-label").text(Text.translatable("text.lavender.entry.locked"));
-                        }
+            var index = new EntryIndex(entries, respectOrdinals, pageSizes);
 
-                        int sectionIndex = indexSections.size() - 1;
-                        int entryHeight = entry.canPlayerView(this.context.client.player)
-                                ? Math.max(10, this.lineCount(entry.title(), hasUnreadNotification) * 8)
-                                : 10;
+            var sections = index.paginate(this.context.searchBox.getText());
+            sections.forEach(index::materialize);
 
-                        if (currentSectionHeight.intValue() + entryHeight >= (sectionIndex < pageSizes.length ? pageSizes[sectionIndex] : 150)) {
-                            indexSections.add(Containers.verticalFlow(Sizing.fill(100), Sizing.content()));
-                            currentSectionHeight.setValue(0);
-                        }
-
-                        Iterables.getLast(indexSections).child(indexItem);
-                        currentSectionHeight.add(entryHeight);
-                    });
-
-            return indexSections;
+            return sections;
         }
 
         protected FlowLayout buildCategoryIndex(Stream<Category> categories) {
@@ -701,12 +861,233 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
         }
 
         protected int lineCount(String entryTitle, boolean hasNotification) {
-            return this.context.client.textRenderer.getTextHandler().wrapLines(entryTitle, hasNotification ? 90 : 98, Style.EMPTY.withFont(MinecraftClient.UNICODE_FONT_ID)).size();
+            var lineCounts = hasNotification ? NOTIFIED_TITLE_LINE_COUNTS : TITLE_LINE_COUNTS;
+
+            int lineCount = lineCounts.getInt(entryTitle);
+            if (lineCount == -1) {
+                lineCount = this.context.client.textRenderer.getTextHandler().wrapLines(entryTitle, hasNotification ? 90 : 98, Style.EMPTY.withFont(MinecraftClient.UNICODE_FONT_ID)).size();
+                lineCounts.put(entryTitle, lineCount);
+            }
+
+            return lineCount;
         }
 
         public interface Bookmarkable {
             void addBookmark();
         }
+
+        /**
+         * An index of entries which can be filtered and paginated any number of times,
+         * for instance whenever the search text changes. Once attached, the index lays itself
+         * out into the owning supplier, starting at the end of a given page and continuing
+         * on pages of its own
+         * <p>
+         * Pagination only uses the measured height of each item, the components
+         * of a page are built once it is displayed for the first time and reused
+         * for every later layout
+         */
+        protected class EntryIndex {
+
+            private final List<IndexItem> items = new ArrayList<>();
+            private final int[] pageSizes;
+
+            private @Nullable FlowLayout firstPage = null;
+            private List<FlowLayout> sections = List.of();
+            private List<List<IndexItem>> sectionItems = List.of();
+            private final BitSet materializedSections = new BitSet();
+
+            protected EntryIndex(Collection<Entry> entries, boolean respectOrdinals, int... pageSizes) {
+                this.pageSizes = pageSizes;
+
+                var book = PageSupplier.this.context.book;
+                entries.stream()
+                        .sorted((o1, o2) -> AlphanumComparator.compare(o1.title(), o2.title()))
+                        .sorted(respectOrdinals ? Comparator.comparingInt(Entry::ordinal) : (o1, o2) -> 0)
+                        .sorted(Comparator.comparing(entry -> !book.isVisible(entry)))
+                        .forEach(entry -> {
+                            boolean entryVisible = book.isVisible(entry);
+                            if (entry.secret() && !entryVisible) {
+                                return;
+                            }
+
+                            boolean hasUnreadNotification = entryVisible && book.shouldDisplayUnreadNotification(entry);
+                            int entryHeight = entryVisible
+                                    ? Math.max(10, PageSupplier.this.lineCount(entry.title(), hasUnreadNotification) * 8)
+                                    : 10;
+
+                            this.items.add(new IndexItem(entry, entryVisible, hasUnreadNotification, entryHeight));
+                        });
+            }
+
+            /**
+             * Place the first section of this index at the end of {@code firstPage},
+             * which must be the last page of the owning supplier, and lay out the
+             * index against the current search text
+             */
+            protected void attach(FlowLayout firstPage) {
+                this.firstPage = firstPage;
+                this.layout(PageSupplier.this.context.searchBox.getText());
+            }
+
+            protected void layout(String searchText) {
+                if (this.firstPage == null) return;
+
+                var pages = PageSupplier.this.pages;
+                int firstPageIndex = pages.indexOf(this.firstPage);
+                if (firstPageIndex == -1) return;
+
+                if (!this.sections.isEmpty()) this.firstPage.removeChild(this.sections.get(0));
+                pages.subList(firstPageIndex + 1, pages.size()).clear();
+
+                var sections = this.paginate(searchText);
+                this.firstPage.child(sections.get(0));
+                pages.addAll(sections.subList(1, sections.size()));
+            }
+
+            /**
+             * Distribute the items matching {@code searchText} across sections. The
+             * returned sections stay empty until they are passed to {@link #materialize(Component)}
+             */
+            protected List<FlowLayout> paginate(String searchText) {
+                for (var section : this.sections) {
+                    section.clearChildren();
+                }
+
+                var indexSections = new ArrayList<FlowLayout>();
+                var indexSectionItems = new ArrayList<List<IndexItem>>();
+                int currentSectionHeight = 0;
+
+                indexSections.add(Containers.verticalFlow(Sizing.fill(100), Sizing.content()));
+                indexSectionItems.add(new ArrayList<>());
+
+                var items = this.filter(searchText.strip());
+                for (var item : items) {
+                    int sectionIndex = indexSections.size() - 1;
+                    if (currentSectionHeight + item.height >= (sectionIndex < this.pageSizes.length ? this.pageSizes[sectionIndex] : 150)) {
+                        indexSections.add(Containers.verticalFlow(Sizing.fill(100), Sizing.content()));
+                        indexSectionItems.add(new ArrayList<>());
+                        currentSectionHeight = 0;
+                    }
+
+                    Iterables.getLast(indexSectionItems).add(item);
+                    currentSectionHeight += item.height;
+                }
+
+                this.sections = indexSections;
+                this.sectionItems = indexSectionItems;
+                this.materializedSections.clear();
+
+                return indexSections;
+            }
+
+            /**
+             * Build the components of the section displayed on {@code page}, which is
+             * either a section of this index or the page it is attached to. Does nothing
+             * if {@code page} contains no section or its components are already built
+             */
+            protected void materialize(Component page) {
+                int section = page == this.firstPage ? 0 : this.sections.indexOf(page);
+                if (section == -1 || section >= this.sections.size() || this.materializedSections.get(section)) return;
+
+                var container = this.sections.get(section);
+                for (var item : this.sectionItems.get(section)) {
+                    container.child(item.component());
+                }
+
+                this.materializedSections.set(section);
+            }
+
+            private List<IndexItem> filter(String searchText) {
+                if (searchText.isEmpty()) return this.items;
+
+                // fall back to matching titles only while the search index is
+                // still being built or the query contains no searchable terms
+                var searchIndex = PageSupplier.this.context.book.searchIndex();
+                var searchScores = searchIndex != null ? searchIndex.search(searchText) : null;
+
+                String[] filter = null;
+                if (searchScores == null) {
+                    filter = searchText.split(" ");
+                    for (int i = 0; i < filter.length; i++) {
+                        filter[i] = filter[i].strip().toLowerCase(Locale.ROOT);
+                    }
+                }
+
+                var matches = new ArrayList<IndexItem>();
+                for (var item : this.items) {
+                    if (!item.visible) continue;
+
+                    if (searchScores != null) {
+                        if (!searchScores.containsKey(item.entry)) continue;
+                    } else {
+                        var entryTitle = item.entry.title().toLowerCase(Locale.ROOT);
+                        if (!Arrays.stream(filter).allMatch(entryTitle::contains)) continue;
+                    }
+
+                    matches.add(item);
+                }
+
+                if (searchScores != null) matches.sort(Comparator.comparingInt(item -> -searchScores.getInt(item.entry)));
+                return matches;
+            }
+
+            private final class IndexItem {
+
+                private final Entry entry;
+                private final boolean visible;
+                private final boolean hasUnreadNotification;
+                private final int height;
+
+                private @Nullable Component component = null;
+
+                private IndexItem(Entry entry, boolean visible, boolean hasUnreadNotification, int height) {
+                    this.entry = entry;
+                    this.visible = visible;
+                    this.hasUnreadNotification = hasUnreadNotification;
+                    this.height = height;
+                }
+
+                private Component component() {
+                    if (this.component == null) this.component = this.build();
+                    return this.component;
+                }
+
+                private Component build() {
+                    var context = PageSupplier.this.context;
+                    var entry = this.entry;
+
+                    if (!this.visible) {
+                        var indexItem = context.template(FlowLayout.class, "locked-index-item");
+                        indexItem.childById(LabelComponent.class, "index-label").text(Text.translatable("text.lavender.entry.locked"));
+                        return indexItem;
+                    }
+
+                    var indexItem = context.template(FlowLayout.class, "index-item");
+                    indexItem.childById(StackLayout.class, "icon-anchor").child(entry.iconFactory().apply(Sizing.fill()));
+
+                    var label = indexItem.childById(LabelComponent.class, "index-label");
+
+                    label.text(Text.literal(entry.title()).styled($ -> $.withFont(MinecraftClient.UNICODE_FONT_ID).withItalic(false && this.hasUnreadNotification)));
+                    label.mouseDown().subscribe((mouseX, mouseY, button) -> {
+                        if (button != GLFW.GLFW_MOUSE_BUTTON_LEFT) return false;
+
+                        context.navPush(new EntryPageSupplier(context, entry));
+                        UISounds.playInteractionSound();
+                        return true;
+                    });
+
+                    var animation = label.color().animate(150, Easing.SINE, Color.ofFormatting(Formatting.GOLD));
+                    label.mouseEnter().subscribe(animation::forwards);
+                    label.mouseLeave().subscribe(animation::backwards);
+
+                    if (this.hasUnreadNotification) {
+                        indexItem.child(new UnreadNotificationComponent(context.bookTexture(), false));
+                    }
+
+                    return indexItem;
+                }
+            }
+        }
     }
 
     public static class LandingPageSupplier extends PageSupplier {
@@ -720,7 +1101,7 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
             if (landingPageEntry != null) {
                 var landingPage = Containers.verticalFlow(Sizing.fill(100), Sizing.fill(100));
                 landingPage.child(this.context.template(Component.class, "landing-page-header", Map.of("page-title", landingPageEntry.title())));
-                landingPage.child(this.parseMarkdown(landingPageEntry.content()));
+                landingPage.child(this.parseMarkdown(landingPageEntry.id(), landingPageEntry.content()));
 
                 if (book.displayCompletion()) {
                     var completionBar = this.context.template(
@@ -777,9 +1158,8 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
                     ? 150 - 35 - MathHelper.ceilDiv(book.categories().size() - 1, 4) * 24
                     : 150;
 
-            var orphanedEntries = this.buildEntryIndex(book.orphanedEntries(), true, entriesOnCategoryPage);
-            indexPage.child(orphanedEntries.remove(0));
-            this.pages.addAll(orphanedEntries);
+            this.entryIndex = new EntryIndex(book.orphanedEntries(), true, entriesOnCategoryPage);
+            this.entryIndex.attach(indexPage);
         }
 
         @Override
@@ -803,9 +1183,11 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
         public IndexPageSupplier(LavenderBookScreen context) {
             super(context);
 
-            var entries = this.buildEntryIndex(this.context.book.entries(), false, 125);
-            this.pages.add(this.pageWithHeader(Text.translatable("text.lavender.index_category.title")).child(entries.remove(0)));
-            this.pages.addAll(entries);
+            var indexPage = this.pageWithHeader(Text.translatable("text.lavender.index_category.title"));
+            this.pages.add(indexPage);
+
+            this.entryIndex = new EntryIndex(this.context.book.entries(), false, 125);
+            this.entryIndex.attach(indexPage);
         }
 
         @Override
@@ -838,7 +1220,7 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
                         this.pages.subList(1, this.pages.size()).clear();
                     }
 
-                    var compiled = this.context.processor.process(editorTextCache);
+                    var compiled = this.context.compileMarkdown(null, editorTextCache);
                     boolean firstPage = true;
 
                     while (!compiled.children().isEmpty()) {
@@ -894,7 +1276,7 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
 
             // --- landing page ---
 
-            var parsedLandingPage = this.parseMarkdown(category.content());
+            var parsedLandingPage = this.parseMarkdown(category.id(), category.content());
 
             var landingPageContent = parsedLandingPage.children().get(0);
             parsedLandingPage.removeChild(landingPageContent);
@@ -911,19 +1293,16 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
 
             var entries = this.context.book.entriesByCategory(this.category);
             if (entries != null) {
-                var indexPages = this.buildEntryIndex(entries, true, entriesOnCategoryPage);
-                for (int i = 0; i < indexPages.size(); i++) {
-                    var page = i == 0
-                            ? this.pageWithHeader(Text.translatable("text.lavender.index")).child(indexPages.get(0))
-                            : indexPages.get(i);
-
-                    if (i == 0 && !categoryContainer.children().isEmpty()) {
-                        page.child(1, categoryContainer).child(2, this.context.bookComponentSource.builtinTemplate(Component.class, "horizontal-rule").margins(Insets.vertical(6)));
-                    }
-
-                    this.pages.add(page);
+                var indexPage = this.pageWithHeader(Text.translatable("text.lavender.index"));
+                if (!categoryContainer.children().isEmpty()) {
+                    indexPage.child(categoryContainer).child(this.context.bookComponentSource.builtinTemplate(Component.class, "horizontal-rule").margins(Insets.vertical(6)));
                 }
 
+                this.pages.add(indexPage);
+
+                this.entryIndex = new EntryIndex(entries, true, entriesOnCategoryPage);
+                this.entryIndex.attach(indexPage);
+
                 if (this.context.book.displayCompletion()) {
                     var completionBar = this.context.template(
                             FlowLayout.class,
@@ -942,7 +1321,7 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
         protected int countVisibleEntries(Collection<Entry> entries, ClientPlayerEntity player) {
             int visible = 0;
             for (var entry : entries) {
-                if (!entry.canPlayerView(player)) continue;
+                if (!this.context.book.isVisible(entry)) continue;
                 visible++;
             }
 
@@ -978,26 +1357,63 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
 
         private final Entry entry;
 
+        private final List<String> pageSources;
+        private int compiledSources = 0;
+
         public EntryPageSupplier(LavenderBookScreen context, Entry entry) {
             super(context);
             this.entry = entry;
 
-            var pages = this.parseMarkdown(entry.content());
-            boolean firstPage = true;
+            // pages are compiled when they are first displayed and
+            // in the background afterwards, so that long entries
+            // do not have to be compiled fully before opening
+            this.pageSources = PageBreakFeature.splitPages(entry.content());
+
+            LavenderClientStorage.markEntryViewed(this.context.book, entry);
+            EntryPrefetcher.prefetch(this.context, entry);
+        }
+
+        /**
+         * @return The amount of pages in this entry. Until all pages have been compiled,
+         * this is an estimate assuming one page per remaining page source - it becomes exact
+         * once the last source is compiled, which may add pages the estimate did not include
+         */
+        @Override
+        public int pageCount() {
+            return this.pages.size() + (this.pageSources.size() - this.compiledSources);
+        }
+
+        @Override
+        public Component getPageContent(int pageIndex) {
+            // compile the spread containing the
+            // requested page and the one after it
+            int requiredPages = (pageIndex / 2 + 2) * 2;
+            while (this.pages.size() < requiredPages && this.compileNextSource()) {}
+
+            return super.getPageContent(pageIndex);
+        }
+
+        @Override
+        void tick() {
+            this.compileNextSource();
+        }
 
+        private boolean compileNextSource() {
+            if (this.compiledSources >= this.pageSources.size()) return false;
+
+            var pages = this.parseMarkdown(this.entry.id(), this.pageSources.get(this.compiledSources++));
             while (!pages.children().isEmpty()) {
                 var component = pages.children().get(0);
                 pages.removeChild(component);
 
-                if (firstPage) {
-                    firstPage = false;
-                    this.pages.add(this.pageWithHeader(Text.literal(entry.title())).child(component));
+                if (this.pages.isEmpty()) {
+                    this.pages.add(this.pageWithHeader(Text.literal(this.entry.title())).child(component));
                 } else {
                     this.pages.add(component);
                 }
             }
 
-            LavenderClientStorage.markEntryViewed(this.context.book, entry);
+            return true;
         }
 
         @Override
@@ -1010,7 +1426,7 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
             var entryId = this.entry.id();
             return context -> {
                 var entry = context.book.entryById(entryId);
-                return entry != null && entry.canPlayerView(context.client.player) ? new EntryPageSupplier(context, entry) : null;
+                return entry != null && context.book.isVisible(entry) ? new EntryPageSupplier(context, entry) : null;
             };
         }
 
@@ -1043,13 +1459,82 @@ public class LavenderBookScreen extends BaseUIModelScreen<FlowLayout> implements
         }
     }
 
+    private record RetainedScreen(LavenderBookScreen screen, int loadGeneration, int visibilityVersion, @Nullable UUID worldId) {
+        private RetainedScreen(LavenderBookScreen screen) {
+            this(screen, BookLoader.loadGeneration(), screen.book.visibilityVersion(), LavenderClient.currentWorldId());
+        }
+
+        private boolean isValidFor(Book book) {
+            return this.screen.book == book
+                    && BookLoader.get(book.id()) == book
+                    && this.loadGeneration == BookLoader.loadGeneration()
+                    && this.visibilityVersion == book.visibilityVersion()
+                    && Objects.equals(this.worldId, LavenderClient.currentWorldId());
+        }
+    }
+
+    /**
+     * The markdown processor of a book, which is assembled once and shared by all screens
+     * of that book. Its features create components through this processor, which
+     * forwards to the screen currently compiling markdown with it
+     */
+    private static final class BookProcessor implements BookCompiler.ComponentSource {
+
+        private final MarkdownProcessor<ParentComponent> markdown;
+        private final Supplier<BookCompiler> compilerFactory = () -> new BookCompiler(this);
+        private @Nullable LavenderBookScreen boundScreen = null;
+
+        private BookProcessor(Identifier bookId) {
+            var processor = MarkdownProcessor.richText(0)
+                    .copyWith(this.compilerFactory::get)
+                    .copyWith(
+                            new ImageFeature(), new BlockStateFeature(), new ItemStackFeature(), new EntityFeature(),
+                            new PageBreakFeature(), new OwoUITemplateFeature(this),
+                            new RecipeFeature(this, RECIPE_HANDLERS.get(bookId)),
+                            new StructureFeature(this), new KeybindFeature(),
+                            new ItemTagFeature(), new OwoUIModelFeature(), new TranslationsFeature()
+                    );
+
+            if (FEATURE_PROVIDERS.get(bookId) != null) {
+                processor = processor.copyWith(FEATURE_PROVIDERS.get(bookId).createFeatures(this).toArray(MarkdownFeature[]::new));
+            }
+
+            this.markdown = processor;
+        }
+
+        /**
+         * @return The screen which was bound before
+         */
+        private @Nullable LavenderBookScreen bind(@Nullable LavenderBookScreen screen) {
+            var previous = this.boundScreen;
+            this.boundScreen = screen;
+
+            return previous;
+        }
+
+        @Override
+        public <C extends Component> C template(UIModel model, Class<C> expectedComponentClass, String name, Map<String, String> params) {
+            if (this.boundScreen == null) {
+                throw new IllegalStateException("Book components can only be created while a screen compiles markdown");
+            }
+
+            return this.boundScreen.template(model, expectedComponentClass, name, params);
+        }
+    }
+
     @FunctionalInterface
     public interface FeatureProvider {
         /**
-         * Create a new set of additional features to insert into the Markdown
-         * processor used for compiling entries of your book. {@code bookComponentSource}
+         * Create the set of additional features to insert into the Markdown
+         * processor used for compiling entries of your book. {@code componentSource}
          * should be used to create components from templates as it has a set of Lavender-specific
          * template parameters pre-filled
+         * <p>
+         * This is invoked once per book whenever its processor is assembled, which happens
+         * again after resource reloads, disconnecting or (re-)registering providers - not once per
+         * opened screen. The returned features are therefore shared by every screen of the book and
+         * must not hold per-screen state. {@code componentSource} delegates to whichever screen is
+         * currently compiling markdown and may only be used while features compile
          */
         List<MarkdownFeature> createFeatures(BookCompiler.ComponentSource componentSource);
     }
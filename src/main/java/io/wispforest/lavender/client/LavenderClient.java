@@ -7,6 +7,7 @@ import io.wispforest.lavender.book.BookContentLoader;
 import io.wispforest.lavender.book.BookLoader;
 import io.wispforest.lavender.book.LavenderBookItem;
 import io.wispforest.lavender.md.ItemListComponent;
+import io.wispforest.lavender.md.ParsedMarkdownCache;
 import io.wispforest.lavender.structure.LavenderStructures;
 import io.wispforest.owo.ui.component.Components;
 import io.wispforest.owo.ui.container.Containers;
@@ -27,16 +28,23 @@ import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
 import net.fabricmc.fabric.api.client.model.loading.v1.ModelLoadingPlugin;
 import net.fabricmc.fabric.api.client.networking.v1.ClientPlayConnectionEvents;
 import net.fabricmc.fabric.api.client.networking.v1.ClientPlayNetworking;
+import net.fabricmc.fabric.api.event.lifecycle.v1.CommonLifecycleEvents;
 import net.fabricmc.fabric.api.event.player.UseBlockCallback;
+import net.fabricmc.fabric.api.resource.ResourceManagerHelper;
+import net.fabricmc.fabric.api.resource.ResourceReloadListenerKeys;
+import net.fabricmc.fabric.api.resource.SimpleSynchronousResourceReloadListener;
 import net.minecraft.client.MinecraftClient;
-import net.minecraft.client.network.ClientPlayerEntity;
 import net.minecraft.item.Items;
+import net.minecraft.resource.ResourceManager;
+import net.minecraft.resource.ResourceType;
 import net.minecraft.text.Text;
 import net.minecraft.util.ActionResult;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.hit.BlockHitResult;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.UUID;
 
 @Environment(EnvType.CLIENT)
@@ -60,6 +68,7 @@ public class LavenderClient implements ClientModInitializer {
 
         StructureOverlayRenderer.initialize();
         OffhandBookRenderer.initialize();
+        EntryPrefetcher.initialize();
 
         LavenderStructures.initialize();
         BookLoader.initialize();
@@ -70,6 +79,36 @@ public class LavenderClient implements ClientModInitializer {
             BookContentLoader.reloadContents(MinecraftClient.getInstance().getResourceManager());
         });
 
+        ClientPlayConnectionEvents.DISCONNECT.register((handler, client) -> {
+            LavenderBookScreen.clearProcessors();
+            OffhandBookRenderer.clearCachedScreens();
+            LavenderBookScreen.clearRetainedScreen();
+        });
+
+        CommonLifecycleEvents.TAGS_LOADED.register((registries, client) -> {
+            if (client) ParsedMarkdownCache.clear();
+        });
+
+        ResourceManagerHelper.get(ResourceType.CLIENT_RESOURCES).registerReloadListener(new SimpleSynchronousResourceReloadListener() {
+            @Override
+            public Identifier getFabricId() {
+                return Lavender.id("book_screen_caches");
+            }
+
+            @Override
+            public Collection<Identifier> getFabricDependencies() {
+                return List.of(ResourceReloadListenerKeys.FONTS, ResourceReloadListenerKeys.MODELS);
+            }
+
+            @Override
+            public void reload(ResourceManager manager) {
+                LavenderBookScreen.clearLayoutCaches();
+                LavenderBookScreen.clearProcessors();
+                OffhandBookRenderer.clearCachedScreens();
+                StructureMeshCache.clear();
+            }
+        });
+
         Hud.add(ENTRY_HUD_ID, () -> Containers.horizontalFlow(Sizing.content(), Sizing.content()).gap(5).positioning(Positioning.across(50, 52)));
         ClientTickEvents.END_CLIENT_TICK.register(client -> {
             if (client.world == null || !(Hud.getComponent(ENTRY_HUD_ID) instanceof FlowLayout hudComponent)) return;
@@ -86,7 +125,7 @@ public class LavenderClient implements ClientModInitializer {
                 if (item == Items.AIR) return;
 
                 var associatedEntry = book.entryByAssociatedItem(item.getDefaultStack());
-                if (associatedEntry == null || !associatedEntry.canPlayerView(client.player)) return;
+                if (associatedEntry == null || !book.isVisible(associatedEntry)) return;
 
                 container.child(Containers.verticalFlow(Sizing.content(), Sizing.content())
                         .child(associatedEntry.iconFactory().apply(Sizing.fixed(16)).margins(Insets.of(0, 1, 0, 1)))
@@ -108,12 +147,12 @@ public class LavenderClient implements ClientModInitializer {
             if (item == Items.AIR) return ActionResult.PASS;
 
             var associatedEntry = book.entryByAssociatedItem(item.getDefaultStack());
-            if (associatedEntry == null || !associatedEntry.canPlayerView((ClientPlayerEntity) player)) {
+            if (associatedEntry == null || !book.isVisible(associatedEntry)) {
                 return ActionResult.PASS;
             }
 
             LavenderBookScreen.pushEntry(book, associatedEntry);
-            MinecraftClient.getInstance().setScreen(new LavenderBookScreen(book));
+            MinecraftClient.getInstance().setScreen(LavenderBookScreen.create(book));
 
             player.swingHand(hand);
             return ActionResult.FAIL;
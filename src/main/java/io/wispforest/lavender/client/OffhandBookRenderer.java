@@ -1,8 +1,12 @@
 package io.wispforest.lavender.client;
 
-import com.google.common.base.Suppliers;
 import com.mojang.blaze3d.systems.RenderSystem;
 import io.wispforest.lavender.book.Book;
+import io.wispforest.lavender.book.BookLoader;
+import io.wispforest.lavender.book.StructureComponent;
+import io.wispforest.lavender.md.ItemListComponent;
+import io.wispforest.owo.ui.core.ParentComponent;
+import io.wispforest.owo.ui.core.PositionedRectangle;
 import io.wispforest.owo.ui.event.WindowResizeCallback;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.gl.Framebuffer;
@@ -11,96 +15,218 @@ import net.minecraft.client.gui.DrawContext;
 import net.minecraft.client.render.*;
 import net.minecraft.client.util.math.MatrixStack;
 import net.minecraft.util.Arm;
+import net.minecraft.util.Util;
 import net.minecraft.util.math.RotationAxis;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.function.Supplier;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.UUID;
 
 public class OffhandBookRenderer {
 
-    private static final Supplier<Framebuffer> FRAMEBUFFER = Suppliers.memoize(() -> {
-        var window = MinecraftClient.getInstance().getWindow();
+    private static final int MAX_CACHED_SCREENS = 3;
 
-        var framebuffer = new SimpleFramebuffer(window.getFramebufferWidth(), window.getFramebufferHeight(), true, MinecraftClient.IS_SYSTEM_MAC);
-        framebuffer.setClearColor(0f, 0f, 0f, 0f);
-        return framebuffer;
-    });
+    // overlay screens are kept per book, so that swapping
+    // between a few books does not recompile their content
+    private static final LinkedHashMap<Book, CachedScreen> CACHED_SCREENS = new LinkedHashMap<>(8, .75f, true);
 
-    private static LavenderBookScreen cachedScreen = null;
-    private static boolean cacheExpired = true;
+    private static @Nullable Framebuffer framebuffer = null;
+
+    // the framebuffer is only re-rendered when the content of the
+    // cached screen changed or when animated components are visible
+    private static @Nullable LavenderBookScreen renderedScreen = null;
+    private static int renderedContentVersion = -1;
+    private static boolean hasAnimatedContent = false;
+    private static long lastRenderTime = 0;
+
+    private static int animationFrameRate = 30;
+    private static int textureResolution = 768;
 
     public static void initialize() {
-        WindowResizeCallback.EVENT.register((client, window) -> {
-            FRAMEBUFFER.get().resize(window.getFramebufferWidth(), window.getFramebufferHeight(), MinecraftClient.IS_SYSTEM_MAC);
-            cachedScreen = null;
-        });
+        WindowResizeCallback.EVENT.register((client, window) -> clearCachedScreens());
+    }
+
+    /**
+     * Set the rate at which an offhand book re-renders while it displays animated
+     * components, like cycling ingredient lists or rotating structures. Books without
+     * animated components only re-render when their content changes
+     *
+     * @param framesPerSecond The maximum amount of times per second to re-render,
+     *                        or {@code 0} to re-render every frame
+     */
+    public static void setAnimationFrameRate(int framesPerSecond) {
+        animationFrameRate = Math.max(0, framesPerSecond);
     }
 
-    public static void beginFrame() {
-        cacheExpired = true;
+    /**
+     * Set the horizontal resolution of the texture an offhand book is rendered
+     * to. Its vertical resolution follows from the aspect ratio of the book
+     */
+    public static void setTextureResolution(int width) {
+        textureResolution = Math.max(64, Math.min(4096, width));
+        renderedScreen = null;
+    }
+
+    /**
+     * Discard the overlay screen of {@code book}, so
+     * that it is rebuilt the next time it is rendered
+     */
+    public static void invalidate(Book book) {
+        var cached = CACHED_SCREENS.remove(book);
+        if (cached != null && cached.screen == renderedScreen) renderedScreen = null;
+    }
+
+    public static void clearCachedScreens() {
+        CACHED_SCREENS.clear();
+        renderedScreen = null;
     }
 
     public static void render(MatrixStack matrices, Book book) {
         final var client = MinecraftClient.getInstance();
         client.getBufferBuilders().getEntityVertexConsumers().draw();
 
-        cacheExpired = false;
-
-        // --- render book screen to separate framebuffer ---
+        var cached = CACHED_SCREENS.get(book);
+        if (cached != null && !cached.isValidFor(book)) {
+            invalidate(book);
+            cached = null;
+        }
 
-        var screen = cachedScreen;
-        if (screen == null || screen.book != book) {
-            cachedScreen = screen = new LavenderBookScreen(book, true);
+        LavenderBookScreen screen;
+        if (cached != null) {
+            screen = cached.screen;
+        } else {
+            screen = new LavenderBookScreen(book, true);
             screen.init(client, client.getWindow().getScaledWidth(), client.getWindow().getScaledHeight());
 
             // we dispose the ui adapter here to
             // stop it from messing with and/or
             // leaking GLFW cursor objects
             screen.adapter().dispose();
+
+            CACHED_SCREENS.put(book, new CachedScreen(screen));
+            if (CACHED_SCREENS.size() > MAX_CACHED_SCREENS) {
+                var eldest = CACHED_SCREENS.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+
+        var area = screen.bookArea();
+        int width = textureResolution;
+        int height = Math.max(1, Math.round(width * area.height() / (float) area.width()));
+
+        if (framebuffer == null) {
+            framebuffer = new SimpleFramebuffer(width, height, true, MinecraftClient.IS_SYSTEM_MAC);
+            framebuffer.setClearColor(0f, 0f, 0f, 0f);
+        } else if (framebuffer.textureWidth != width || framebuffer.textureHeight != height) {
+            framebuffer.resize(width, height, MinecraftClient.IS_SYSTEM_MAC);
+            renderedScreen = null;
         }
 
+        if (needsRender(screen)) {
+            renderScreen(screen, width, height);
+        } else {
+            // animations still advance, they
+            // just are not drawn every frame
+            screen.adapter().rootComponent.update(client.getLastFrameDuration(), -69, -69);
+        }
+
+        drawFramebuffer(matrices, screen, area);
+    }
+
+    private static boolean needsRender(LavenderBookScreen screen) {
+        if (renderedScreen != screen || renderedContentVersion != screen.contentVersion()) return true;
+        if (!hasAnimatedContent) return false;
+
+        return animationFrameRate == 0 || Util.getMeasuringTimeMs() - lastRenderTime >= 1000 / animationFrameRate;
+    }
+
+    // --- render book screen to separate framebuffer ---
+
+    private static void renderScreen(LavenderBookScreen screen, int width, int height) {
+        final var client = MinecraftClient.getInstance();
+
         var modelView = RenderSystem.getModelViewStack();
         modelView.push();
         modelView.loadIdentity();
         modelView.translate(0, 0, -2000);
         RenderSystem.applyModelViewMatrix();
 
-        var framebuffer = FRAMEBUFFER.get();
         framebuffer.clear(MinecraftClient.IS_SYSTEM_MAC);
-        framebuffer.beginWrite(false);
+        framebuffer.beginWrite(true);
 
-        screen.render(new DrawContext(client, client.getBufferBuilders().getEntityVertexConsumers()), -69, -69, 0);
+        screen.renderBookArea(new DrawContext(client, client.getBufferBuilders().getEntityVertexConsumers()), width, height);
         RenderSystem.disableDepthTest();
 
-        client.getFramebuffer().beginWrite(false);
+        client.getFramebuffer().beginWrite(true);
 
         modelView.pop();
         RenderSystem.applyModelViewMatrix();
 
-        // --- draw color attachment in place of map texture ---
+        if (renderedScreen != screen || renderedContentVersion != screen.contentVersion()) {
+            renderedScreen = screen;
+            renderedContentVersion = screen.contentVersion();
+            hasAnimatedContent = containsAnimatedComponents(screen.adapter().rootComponent);
+        }
+
+        lastRenderTime = Util.getMeasuringTimeMs();
+    }
+
+    private static boolean containsAnimatedComponents(ParentComponent root) {
+        var animated = new boolean[]{false};
+        root.forEachDescendant(component -> {
+            if (component instanceof ItemListComponent || component instanceof StructureComponent || component instanceof UnreadNotificationComponent) {
+                animated[0] = true;
+            }
+        });
+
+        return animated[0];
+    }
+
+    // --- draw color attachment in place of map texture ---
+
+    private static void drawFramebuffer(MatrixStack matrices, LavenderBookScreen screen, PositionedRectangle area) {
+        final var client = MinecraftClient.getInstance();
 
         matrices.push();
         matrices.multiply(RotationAxis.POSITIVE_Y.rotationDegrees(client.player.getMainArm() == Arm.RIGHT ? 15 : -15));
         matrices.multiply(RotationAxis.POSITIVE_X.rotationDegrees(-10));
 
-        matrices.scale(1.3f * (framebuffer.textureWidth / (float) framebuffer.textureHeight), 1.35f, 1.35f);
+        matrices.scale(1.3f * (screen.width / (float) screen.height), 1.35f, 1.35f);
         matrices.translate(-.5f, -.4f, -.5f);
 
         RenderSystem.setShader(GameRenderer::getPositionTexProgram);
         RenderSystem.setShaderTexture(0, framebuffer.getColorAttachment());
 
+        // the texture only covers the book itself, so
+        // the quad is placed where the book would be
+        // if the entire screen was displayed
+        float left = area.x() / (float) screen.width, right = (area.x() + area.width()) / (float) screen.width;
+        float top = 1 - area.y() / (float) screen.height, bottom = 1 - (area.y() + area.height()) / (float) screen.height;
+
         var matrix = matrices.peek().getPositionMatrix();
         var buffer = Tessellator.getInstance().getBuffer();
         buffer.begin(VertexFormat.DrawMode.QUADS, VertexFormats.POSITION_TEXTURE);
-        buffer.vertex(matrix, 0, 1, 0).texture(0, 1).next();
-        buffer.vertex(matrix, 0, 0, 0).texture(0, 0).next();
-        buffer.vertex(matrix, 1, 0, 0).texture(1, 0).next();
-        buffer.vertex(matrix, 1, 1, 0).texture(1, 1).next();
+        buffer.vertex(matrix, left, top, 0).texture(0, 1).next();
+        buffer.vertex(matrix, left, bottom, 0).texture(0, 0).next();
+        buffer.vertex(matrix, right, bottom, 0).texture(1, 0).next();
+        buffer.vertex(matrix, right, top, 0).texture(1, 1).next();
         BufferRenderer.drawWithGlobalProgram(buffer.end());
 
         matrices.pop();
     }
 
-    public static void endFrame() {
-        if (cacheExpired) cachedScreen = null;
+    private record CachedScreen(LavenderBookScreen screen, int loadGeneration, int visibilityVersion, @Nullable UUID worldId) {
+        private CachedScreen(LavenderBookScreen screen) {
+            this(screen, BookLoader.loadGeneration(), screen.book.visibilityVersion(), LavenderClient.currentWorldId());
+        }
+
+        private boolean isValidFor(Book book) {
+            return this.screen.book == book
+                    && this.loadGeneration == BookLoader.loadGeneration()
+                    && this.visibilityVersion == book.visibilityVersion()
+                    && Objects.equals(this.worldId, LavenderClient.currentWorldId());
+        }
     }
 }
@@ -0,0 +1,252 @@
+package io.wispforest.lavender.client;
+
+import com.mojang.blaze3d.systems.RenderSystem;
+import io.wispforest.lavender.structure.BlockStatePredicate;
+import io.wispforest.lavender.structure.StructureTemplate;
+import net.minecraft.block.BlockRenderType;
+import net.minecraft.block.BlockState;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.gl.VertexBuffer;
+import net.minecraft.client.render.BufferBuilder;
+import net.minecraft.client.render.DiffuseLighting;
+import net.minecraft.client.render.LightmapTextureManager;
+import net.minecraft.client.render.OverlayTexture;
+import net.minecraft.client.render.RenderLayer;
+import net.minecraft.client.render.RenderLayers;
+import net.minecraft.client.render.VertexConsumerProvider;
+import net.minecraft.client.util.math.MatrixStack;
+import net.minecraft.util.BlockRotation;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.random.Random;
+import net.minecraft.world.BlockRenderView;
+import org.joml.Matrix3f;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bakes the preview of a structure template into static vertex buffers, so
+ * that drawing it only requires a single draw call per render layer instead of
+ * rendering every block model again each frame. Faces between neighbouring blocks
+ * are culled while baking, so the size of a mesh follows the surface of its template.
+ * Since smooth lighting is baked as well, all meshes are dropped when that option changes
+ * <p>
+ * Meshes are cached per template and visible layer. Since predicates may cycle
+ * their preview state (like block tags do), the preview states of all predicates
+ * without a {@linkplain BlockStatePredicate#hasStaticPreview() static preview} are
+ * sampled again once per cycle step and the mesh is rebuilt if any changed
+ * <p>
+ * Translucent blocks are not baked, since their faces must be sorted back to front for
+ * the current rotation of the preview - those are still rendered immediately every frame
+ */
+public class StructureMeshCache {
+
+    private static final int MAX_CACHED_MESHES = 12;
+    private static final long PREVIEW_CYCLE_MILLIS = 1000;
+
+    // these mirror the vanilla diffuse lights, which the gui
+    // lighting setup derives its light directions from
+    private static final Vector3f DIFFUSION_LIGHT_0 = new Vector3f(0.2f, 1f, -0.7f).normalize();
+    private static final Vector3f DIFFUSION_LIGHT_1 = new Vector3f(-0.2f, 1f, 0.7f).normalize();
+
+    private static final LinkedHashMap<MeshKey, Mesh> MESHES = new LinkedHashMap<>(16, .75f, true);
+    private static final Map<RenderLayer, BufferBuilder> BAKE_BUFFERS = new LinkedHashMap<>();
+    private static final Random RANDOM = Random.create();
+
+    // smooth lighting is baked into meshes, so
+    // toggling it invalidates all of them
+    private static boolean bakedWithAmbientOcclusion = false;
+
+    /**
+     * Draw the preview of {@code structure}, restricted to {@code visibleLayer} unless
+     * it is {@code -1}, with the flat gui lighting used for item and block previews
+     *
+     * @param matrices The transform of the structure, relative to the current model-view matrix
+     */
+    public static void drawPreview(StructureTemplate structure, int visibleLayer, MatrixStack matrices) {
+        boolean ambientOcclusion = MinecraftClient.getInstance().options.getAo().getValue();
+        if (ambientOcclusion != bakedWithAmbientOcclusion) {
+            clear();
+            bakedWithAmbientOcclusion = ambientOcclusion;
+        }
+
+        var key = new MeshKey(structure, visibleLayer);
+
+        var mesh = MESHES.get(key);
+        if (mesh == null || mesh.isOutdated()) {
+            if (mesh != null) mesh.close();
+
+            mesh = Mesh.bake(structure, visibleLayer);
+            MESHES.put(key, mesh);
+
+            var eldest = MESHES.entrySet().iterator();
+            while (MESHES.size() > MAX_CACHED_MESHES) {
+                eldest.next().getValue().close();
+                eldest.remove();
+            }
+        }
+
+        var modelView = new Matrix4f(RenderSystem.getModelViewMatrix()).mul(matrices.peek().getPositionMatrix());
+
+        // normals are baked in structure space, so the lights are moved
+        // into structure space as well instead of transforming every normal
+        var toStructureSpace = new Matrix4f(new Matrix3f(matrices.peek().getNormalMatrix()).transpose())
+                .scale(1, -1, 1)
+                .rotateY(-0.3926991f)
+                .rotateX(2.3561945f);
+        RenderSystem.setupLevelDiffuseLighting(DIFFUSION_LIGHT_0, DIFFUSION_LIGHT_1, toStructureSpace);
+
+        mesh.draw(modelView);
+
+        // translucent geometry is sorted when the immediate
+        // buffers are drawn, so it always follows the rotation
+        if (mesh.translucentBlocks.isEmpty()) return;
+
+        var entityBuffers = MinecraftClient.getInstance().getBufferBuilders().getEntityVertexConsumers();
+        for (var blockPos : mesh.translucentBlocks) {
+            matrices.push();
+            matrices.translate(blockPos.getX(), blockPos.getY(), blockPos.getZ());
+
+            renderPreviewBlock(mesh.view, mesh.view.getBlockState(blockPos), blockPos, matrices, entityBuffers);
+
+            matrices.pop();
+        }
+
+        DiffuseLighting.disableGuiDepthLighting();
+        entityBuffers.draw();
+    }
+
+    /**
+     * Render {@code state}, which is located at {@code pos} in {@code view}, the same way
+     * {@link net.minecraft.client.render.block.BlockRenderManager#renderBlockAsEntity} would - except
+     * that faces hidden by a neighbouring block in {@code view} are culled, like chunk meshing does
+     */
+    public static void renderPreviewBlock(BlockRenderView view, BlockState state, BlockPos pos, MatrixStack matrices, VertexConsumerProvider consumers) {
+        var blockRenderManager = MinecraftClient.getInstance().getBlockRenderManager();
+
+        if (state.getRenderType() == BlockRenderType.MODEL) {
+            blockRenderManager.renderBlock(state, pos, view, matrices, consumers.getBuffer(RenderLayers.getEntityBlockLayer(state, false)), true, RANDOM);
+        } else {
+            blockRenderManager.renderBlockAsEntity(state, matrices, consumers, LightmapTextureManager.MAX_BLOCK_LIGHT_COORDINATE, OverlayTexture.DEFAULT_UV);
+        }
+    }
+
+    public static void clear() {
+        MESHES.values().forEach(Mesh::close);
+        MESHES.clear();
+    }
+
+    private record MeshKey(StructureTemplate structure, int visibleLayer) {}
+
+    private static class Mesh {
+
+        private final Map<RenderLayer, VertexBuffer> buffers;
+        private final BlockRenderView view;
+        private final List<BlockPos> translucentBlocks;
+
+        private final BlockStatePredicate[] cyclingPredicates;
+        private final BlockState[] cyclingStates;
+
+        private long cycleStep;
+
+        private Mesh(Map<RenderLayer, VertexBuffer> buffers, BlockRenderView view, List<BlockPos> translucentBlocks, BlockStatePredicate[] cyclingPredicates, BlockState[] cyclingStates) {
+            this.buffers = buffers;
+            this.view = view;
+            this.translucentBlocks = translucentBlocks;
+            this.cyclingPredicates = cyclingPredicates;
+            this.cyclingStates = cyclingStates;
+            this.cycleStep = System.currentTimeMillis() / PREVIEW_CYCLE_MILLIS;
+        }
+
+        private static Mesh bake(StructureTemplate structure, int visibleLayer) {
+            var translucentBlocks = new ArrayList<BlockPos>();
+            var cyclingPredicates = new ArrayList<BlockStatePredicate>();
+            var cyclingStates = new ArrayList<BlockState>();
+
+            var matrices = new MatrixStack();
+            var view = structure.asBlockRenderView(BlockRotation.NONE, visibleLayer);
+
+            VertexConsumerProvider consumers = layer -> {
+                var buffer = BAKE_BUFFERS.computeIfAbsent(layer, $ -> new BufferBuilder(layer.getExpectedBufferSize()));
+                if (!buffer.isBuilding()) buffer.begin(layer.getDrawMode(), layer.getVertexFormat());
+
+                return buffer;
+            };
+
+            structure.forEachPredicate((blockPos, predicate) -> {
+                if (visibleLayer != -1 && visibleLayer != blockPos.getY()) return;
+
+                var state = predicate.preview();
+                if (!predicate.hasStaticPreview()) {
+                    cyclingPredicates.add(predicate);
+                    cyclingStates.add(state);
+                }
+
+                if (RenderLayers.getBlockLayer(state) == RenderLayer.getTranslucent()) {
+                    translucentBlocks.add(blockPos.toImmutable());
+                    return;
+                }
+
+                matrices.push();
+                matrices.translate(blockPos.getX(), blockPos.getY(), blockPos.getZ());
+
+                renderPreviewBlock(view, state, blockPos, matrices, consumers);
+
+                matrices.pop();
+            });
+
+            var buffers = new LinkedHashMap<RenderLayer, VertexBuffer>();
+            BAKE_BUFFERS.forEach((layer, buffer) -> {
+                if (!buffer.isBuilding()) return;
+
+                var vertexBuffer = new VertexBuffer(VertexBuffer.Usage.STATIC);
+                vertexBuffer.bind();
+                vertexBuffer.upload(buffer.end());
+                VertexBuffer.unbind();
+
+                buffers.put(layer, vertexBuffer);
+            });
+
+            return new Mesh(
+                    buffers, view, translucentBlocks,
+                    cyclingPredicates.toArray(BlockStatePredicate[]::new),
+                    cyclingStates.toArray(BlockState[]::new)
+            );
+        }
+
+        private boolean isOutdated() {
+            if (this.cyclingPredicates.length == 0) return false;
+
+            long currentStep = System.currentTimeMillis() / PREVIEW_CYCLE_MILLIS;
+            if (currentStep == this.cycleStep) return false;
+
+            this.cycleStep = currentStep;
+
+            for (int i = 0; i < this.cyclingPredicates.length; i++) {
+                if (this.cyclingPredicates[i].preview() != this.cyclingStates[i]) return true;
+            }
+
+            return false;
+        }
+
+        private void draw(Matrix4f modelView) {
+            this.buffers.forEach((layer, buffer) -> {
+                layer.startDrawing();
+
+                buffer.bind();
+                buffer.draw(modelView, RenderSystem.getProjectionMatrix(), RenderSystem.getShader());
+                VertexBuffer.unbind();
+
+                layer.endDrawing();
+            });
+        }
+
+        private void close() {
+            this.buffers.values().forEach(VertexBuffer::close);
+        }
+    }
+}
@@ -13,13 +13,13 @@ import io.wispforest.owo.ui.core.*;
 import io.wispforest.owo.ui.event.WindowResizeCallback;
 import io.wispforest.owo.ui.hud.Hud;
 import io.wispforest.owo.ui.util.Delta;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientChunkEvents;
 import net.fabricmc.fabric.api.client.rendering.v1.WorldRenderEvents;
 import net.fabricmc.fabric.api.event.player.UseBlockCallback;
+import net.minecraft.block.BlockState;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.gl.Framebuffer;
 import net.minecraft.client.gl.SimpleFramebuffer;
-import net.minecraft.client.render.LightmapTextureManager;
-import net.minecraft.client.render.OverlayTexture;
 import net.minecraft.client.render.OverlayVertexConsumer;
 import net.minecraft.client.render.VertexConsumerProvider;
 import net.minecraft.client.render.model.ModelLoader;
@@ -33,11 +33,14 @@ import net.minecraft.util.Identifier;
 import net.minecraft.util.Util;
 import net.minecraft.util.hit.BlockHitResult;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.math.Vec3i;
-import org.apache.commons.lang3.mutable.MutableBoolean;
+import net.minecraft.world.BlockRenderView;
+import net.minecraft.world.World;
 import org.jetbrains.annotations.Nullable;
 import org.lwjgl.opengl.GL30C;
 
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.Supplier;
@@ -109,6 +112,14 @@ public class StructureOverlayRenderer {
         ACTIVE_OVERLAYS.clear();
     }
 
+    /**
+     * Update the match state of all active overlays
+     * which contain {@code pos} to {@code state}
+     */
+    public static void onBlockChanged(BlockPos pos, BlockState state) {
+        ACTIVE_OVERLAYS.forEach((anchor, entry) -> entry.onBlockChanged(anchor, pos, state));
+    }
+
     public static void rotatePending(boolean clockwise) {
         if (PENDING_OVERLAY == null) return;
         PENDING_OVERLAY.rotation = PENDING_OVERLAY.rotation.rotate(clockwise ? BlockRotation.CLOCKWISE_90 : BlockRotation.COUNTERCLOCKWISE_90);
@@ -143,9 +154,9 @@ public class StructureOverlayRenderer {
                     var structure = entry.fetchStructure();
                     if (structure == null) return true;
 
-                    // --- overlay rendering ---
+                    if (entry.validatedStructure != structure) entry.validate(structure, client.world, anchor);
 
-                    var hasInvalidBlock = new MutableBoolean();
+                    // --- overlay rendering ---
 
                     if (entry.decayTime < 0) {
                         var overlayConsumer = new OverlayVertexConsumer(
@@ -153,17 +164,18 @@ public class StructureOverlayRenderer {
                                 matrices.peek().getPositionMatrix(), matrices.peek().getNormalMatrix(), 1
                         );
 
+                        var view = structure.asBlockRenderView(entry.rotation, entry.visibleLayer);
+
                         matrices.push();
                         matrices.translate(anchor.getX(), anchor.getY(), anchor.getZ());
 
                         structure.forEachPredicate((pos, predicate) -> {
-                            var state = context.world().getBlockState(testPos.set(anchor).move(pos)).rotate(StructureTemplate.inverse(entry.rotation));
-                            var result = predicate.test(state);
+                            int index = entry.indexOf(pos);
 
-                            if (result == BlockStatePredicate.Result.STATE_MATCH) {
+                            if (entry.matchingStates.get(index)) {
                                 return;
-                            } else if (!state.isAir() && result == BlockStatePredicate.Result.NO_MATCH) {
-                                hasInvalidBlock.setTrue();
+                            } else if (entry.invalidBlocks.get(index)) {
+                                var state = context.world().getBlockState(testPos.set(anchor).move(pos)).rotate(StructureTemplate.inverse(entry.rotation));
 
                                 matrices.push();
                                 matrices.translate(pos.getX(), pos.getY(), pos.getZ());
@@ -172,7 +184,7 @@ public class StructureOverlayRenderer {
                             }
 
                             if (entry.visibleLayer != -1 && pos.getY() != entry.visibleLayer) return;
-                            renderOverlayBlock(matrices, context.consumers(), pos, predicate, entry.rotation);
+                            renderOverlayBlock(matrices, context.consumers(), view, pos, predicate, entry.rotation);
 
                         }, entry.rotation);
 
@@ -181,14 +193,14 @@ public class StructureOverlayRenderer {
 
                     // --- hud setup ---
 
-                    var valid = structure.countValidStates(client.world, anchor, entry.rotation, BlockStatePredicate.MatchCategory.NON_AIR);
+                    var valid = entry.validNonAirStates;
                     var total = structure.predicatesOfType(BlockStatePredicate.MatchCategory.NON_AIR);
-                    var complete = structure.validate(client.world, anchor, entry.rotation);
+                    var complete = entry.validNonNullStates == structure.predicatesOfType(BlockStatePredicate.MatchCategory.NON_NULL);
 
                     if (entry.decayTime >= 0) valid = total;
 
                     int barTextureOffset = 0;
-                    if (hasInvalidBlock.booleanValue()) barTextureOffset = 20;
+                    if (entry.decayTime < 0 && !entry.invalidBlocks.isEmpty()) barTextureOffset = 20;
                     if (complete) barTextureOffset = 10;
 
                     entry.visualCompleteness += Delta.compute(entry.visualCompleteness, valid / (float) total, client.getLastFrameDuration());
@@ -220,8 +232,10 @@ public class StructureOverlayRenderer {
                         var targetPos = target.getBlockPos().add(getPendingOffset(structure));
                         if (!client.player.isSneaking()) targetPos = targetPos.offset(target.getSide());
 
+                        var view = structure.asBlockRenderView(PENDING_OVERLAY.rotation, -1);
+
                         matrices.translate(targetPos.getX(), targetPos.getY(), targetPos.getZ());
-                        structure.forEachPredicate((pos, predicate) -> renderOverlayBlock(matrices, context.consumers(), pos, predicate, PENDING_OVERLAY.rotation), PENDING_OVERLAY.rotation);
+                        structure.forEachPredicate((pos, predicate) -> renderOverlayBlock(matrices, context.consumers(), view, pos, predicate, PENDING_OVERLAY.rotation), PENDING_OVERLAY.rotation);
                     }
                 } else {
                     PENDING_OVERLAY = null;
@@ -251,6 +265,16 @@ public class StructureOverlayRenderer {
             RenderSystem.restoreProjectionMatrix();
         });
 
+        // the states of blocks in freshly loaded chunks are not
+        // block updates, so overlays inside them are validated again
+        ClientChunkEvents.CHUNK_LOAD.register((world, chunk) -> {
+            var chunkPos = chunk.getPos();
+            ACTIVE_OVERLAYS.forEach((anchor, entry) -> {
+                if (!entry.intersects(anchor, chunkPos)) return;
+                entry.validate(entry.validatedStructure, world, anchor);
+            });
+        });
+
         WindowResizeCallback.EVENT.register((client, window) -> {
             FRAMEBUFFER.get().resize(window.getFramebufferWidth(), window.getFramebufferHeight(), MinecraftClient.IS_SYSTEM_MAC);
         });
@@ -284,7 +308,7 @@ public class StructureOverlayRenderer {
         // @formatter:on
     }
 
-    private static void renderOverlayBlock(MatrixStack matrices, VertexConsumerProvider consumers, BlockPos offsetInStructure, BlockStatePredicate block, BlockRotation rotation) {
+    private static void renderOverlayBlock(MatrixStack matrices, VertexConsumerProvider consumers, BlockRenderView view, BlockPos offsetInStructure, BlockStatePredicate block, BlockRotation rotation) {
         matrices.push();
         matrices.translate(offsetInStructure.getX(), offsetInStructure.getY(), offsetInStructure.getZ());
 
@@ -292,13 +316,7 @@ public class StructureOverlayRenderer {
         matrices.scale(1.0001f, 1.0001f, 1.0001f);
         matrices.translate(-.5, -.5, -.5);
 
-        MinecraftClient.getInstance().getBlockRenderManager().renderBlockAsEntity(
-                block.preview().rotate(rotation),
-                matrices,
-                consumers,
-                LightmapTextureManager.MAX_BLOCK_LIGHT_COORDINATE,
-                OverlayTexture.DEFAULT_UV
-        );
+        StructureMeshCache.renderPreviewBlock(view, block.preview().rotate(rotation), offsetInStructure, matrices, consumers);
         matrices.pop();
     }
 
@@ -312,6 +330,14 @@ public class StructureOverlayRenderer {
         public float decayTime = -1;
         public float visualCompleteness = 0f;
 
+        // the match state of every predicate, indexed by its position in the
+        // rotated template. it is filled once the overlay becomes active and
+        // then kept up-to-date by block updates and chunk loads
+        public @Nullable StructureTemplate validatedStructure = null;
+        public final BitSet matchingStates = new BitSet();
+        public final BitSet invalidBlocks = new BitSet();
+        public int validNonAirStates = 0, validNonNullStates = 0;
+
         public OverlayEntry(Identifier structureId, BlockRotation rotation) {
             this.structureId = structureId;
             this.rotation = rotation;
@@ -320,6 +346,73 @@ public class StructureOverlayRenderer {
         public @Nullable StructureTemplate fetchStructure() {
             return LavenderStructures.get(this.structureId);
         }
+
+        public void validate(@Nullable StructureTemplate structure, World world, BlockPos anchor) {
+            this.validatedStructure = structure;
+            this.matchingStates.clear();
+            this.invalidBlocks.clear();
+            this.validNonAirStates = 0;
+            this.validNonNullStates = 0;
+
+            if (structure == null) return;
+
+            var worldPos = new BlockPos.Mutable();
+            structure.forEachPredicate((pos, predicate) -> {
+                this.updateState(pos, predicate, world.getBlockState(worldPos.set(anchor).move(pos)));
+            }, this.rotation);
+        }
+
+        public void onBlockChanged(BlockPos anchor, BlockPos worldPos, BlockState state) {
+            if (this.validatedStructure == null) return;
+
+            var pos = worldPos.subtract(anchor);
+
+            var predicate = this.validatedStructure.predicateAt(pos, this.rotation);
+            if (predicate == null) return;
+
+            this.updateState(pos, predicate, state);
+        }
+
+        public boolean intersects(BlockPos anchor, ChunkPos chunk) {
+            if (this.validatedStructure == null) return false;
+
+            return anchor.getX() <= chunk.getEndX() && anchor.getX() + this.rotatedXSize() > chunk.getStartX()
+                    && anchor.getZ() <= chunk.getEndZ() && anchor.getZ() + this.rotatedZSize() > chunk.getStartZ();
+        }
+
+        public int indexOf(BlockPos pos) {
+            return (pos.getX() * this.validatedStructure.ySize + pos.getY()) * this.rotatedZSize() + pos.getZ();
+        }
+
+        private void updateState(BlockPos pos, BlockStatePredicate predicate, BlockState worldState) {
+            var state = worldState.rotate(StructureTemplate.inverse(this.rotation));
+            var result = predicate.test(state);
+
+            int index = this.indexOf(pos);
+
+            boolean matches = result == BlockStatePredicate.Result.STATE_MATCH;
+            if (matches != this.matchingStates.get(index)) {
+                int delta = matches ? 1 : -1;
+                if (predicate.isOf(BlockStatePredicate.MatchCategory.NON_AIR)) this.validNonAirStates += delta;
+                if (predicate.isOf(BlockStatePredicate.MatchCategory.NON_NULL)) this.validNonNullStates += delta;
+
+                this.matchingStates.set(index, matches);
+            }
+
+            this.invalidBlocks.set(index, !state.isAir() && result == BlockStatePredicate.Result.NO_MATCH);
+        }
+
+        private int rotatedXSize() {
+            return this.rotation == BlockRotation.CLOCKWISE_90 || this.rotation == BlockRotation.COUNTERCLOCKWISE_90
+                    ? this.validatedStructure.zSize
+                    : this.validatedStructure.xSize;
+        }
+
+        private int rotatedZSize() {
+            return this.rotation == BlockRotation.CLOCKWISE_90 || this.rotation == BlockRotation.COUNTERCLOCKWISE_90
+                    ? this.validatedStructure.xSize
+                    : this.validatedStructure.zSize;
+        }
     }
 
 }
@@ -0,0 +1,77 @@
+package io.wispforest.lavender.md;
+
+import io.wispforest.lavendermd.Parser;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.util.Identifier;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A size-bounded, least-recently-used cache of parsed markdown trees. Since
+ * parsed trees only describe the structure of a document, they can be compiled
+ * into components any number of times - this allows revisiting an entry
+ * without lexing and parsing its content again
+ * <p>
+ * Some features resolve tags and recipes while lexing, which is why
+ * this cache must be cleared whenever those are synchronized
+ */
+public final class ParsedMarkdownCache {
+
+    private static final int MAX_CACHED_CHARS = 500_000;
+
+    private static final LinkedHashMap<Key, CachedTree> CACHE = new LinkedHashMap<>(16, .75f, true);
+    private static int cachedChars = 0;
+    private static int generation = 0;
+
+    private ParsedMarkdownCache() {}
+
+    /**
+     * Get the parsed tree of {@code markdown}, which is the content of {@code sourceId}
+     * in the book {@code bookId}, invoking {@code parser} if it is not cached yet
+     */
+    public static Parser.Node getOrParse(Identifier bookId, Identifier sourceId, String markdown, Function<String, Parser.Node> parser) {
+        var key = new Key(bookId, sourceId, MinecraftClient.getInstance().getLanguageManager().getLanguage(), markdown.length(), markdown.hashCode());
+
+        int parsedGeneration;
+        synchronized (ParsedMarkdownCache.class) {
+            // the key only identifies the content by its hash,
+            // so a hit must still be checked against the source
+            var cached = CACHE.get(key);
+            if (cached != null && cached.markdown.equals(markdown)) return cached.root;
+
+            parsedGeneration = generation;
+        }
+
+        // parsing is done outside the lock, which
+        // may be held by other threads for a while
+        var root = parser.apply(markdown);
+
+        synchronized (ParsedMarkdownCache.class) {
+            if (parsedGeneration != generation) return root;
+            if (CACHE.put(key, new CachedTree(root, markdown)) == null) cachedChars += markdown.length();
+
+            var iterator = CACHE.entrySet().iterator();
+            while (cachedChars > MAX_CACHED_CHARS && iterator.hasNext()) {
+                Map.Entry<Key, CachedTree> eldest = iterator.next();
+                if (eldest.getKey().equals(key)) break;
+
+                cachedChars -= eldest.getValue().markdown.length();
+                iterator.remove();
+            }
+        }
+
+        return root;
+    }
+
+    public static synchronized void clear() {
+        CACHE.clear();
+        cachedChars = 0;
+        generation++;
+    }
+
+    private record Key(Identifier book, Identifier source, String language, int contentLength, int contentHash) {}
+
+    private record CachedTree(Parser.Node root, String markdown) {}
+}
@@ -6,8 +6,66 @@ import io.wispforest.lavendermd.MarkdownFeature;
 import io.wispforest.lavendermd.Parser;
 import io.wispforest.lavendermd.compiler.MarkdownCompiler;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class PageBreakFeature implements MarkdownFeature {
 
+    private static final String PAGE_BREAK = ";;;;;\n\n";
+
+    private static final String CODE_FENCE = "```";
+    private static final String TEMPLATE_START = "<|";
+    private static final String TEMPLATE_END = "|>";
+
+    /**
+     * Split {@code markdown} into the sources of its individual pages, at exactly the
+     * positions this feature would emit page breaks. Since page breaks are boundaries,
+     * every part can be compiled on its own and produces a single page
+     * <p>
+     * Code blocks and template instantiations are consumed whole by the lexer, so
+     * page break markers inside of them are skipped here as well
+     */
+    public static List<String> splitPages(String markdown) {
+        var pages = new ArrayList<String>();
+
+        int pageStart = 0;
+        int index = 0;
+
+        while (index < markdown.length()) {
+            int spanEnd = -1;
+            if (markdown.startsWith(CODE_FENCE, index)) {
+                spanEnd = skipSpan(markdown, index, CODE_FENCE, CODE_FENCE);
+            } else if (markdown.startsWith(TEMPLATE_START, index)) {
+                spanEnd = skipSpan(markdown, index, TEMPLATE_START, TEMPLATE_END);
+            }
+
+            if (spanEnd != -1) {
+                index = spanEnd;
+                continue;
+            }
+
+            if (index >= 2 && markdown.charAt(index - 1) == '\n' && markdown.charAt(index - 2) == '\n' && markdown.startsWith(PAGE_BREAK, index)) {
+                pages.add(markdown.substring(pageStart, index));
+                pageStart = index = index + PAGE_BREAK.length();
+                continue;
+            }
+
+            index++;
+        }
+
+        pages.add(markdown.substring(pageStart));
+        return pages;
+    }
+
+    /**
+     * @return The index just past the {@code end} delimiter closing the span
+     * opened at {@code start}, or {@code -1} if the span is never closed
+     */
+    private static int skipSpan(String markdown, int start, String open, String end) {
+        int endIndex = markdown.indexOf(end, start + open.length());
+        return endIndex != -1 ? endIndex + end.length() : -1;
+    }
+
     @Override
     public String name() {
         return "book_page_breaks";
@@ -22,7 +80,7 @@ public class PageBreakFeature implements MarkdownFeature {
     public void registerTokens(TokenRegistrar registrar) {
         registrar.registerToken((nibbler, tokens) -> {
             if (!nibbler.expect(-1, '\n') || !nibbler.expect(-2, '\n')) return false;
-            if (!nibbler.tryConsume(";;;;;\n\n")) return false;
+            if (!nibbler.tryConsume(PAGE_BREAK)) return false;
 
             tokens.add(new PageBreakToken());
             return true;
@@ -39,7 +97,7 @@ public class PageBreakFeature implements MarkdownFeature {
 
     private static class PageBreakToken extends Lexer.Token {
         public PageBreakToken() {
-            super(";;;;;\n\n");
+            super(PAGE_BREAK);
         }
 
         @Override
@@ -0,0 +1,18 @@
+package io.wispforest.lavender.mixin;
+
+import io.wispforest.lavender.book.BookLoader;
+import net.minecraft.client.network.ClientAdvancementManager;
+import net.minecraft.network.packet.s2c.play.AdvancementUpdateS2CPacket;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(ClientAdvancementManager.class)
+public class ClientAdvancementManagerMixin {
+
+    @Inject(method = "onAdvancements", at = @At("TAIL"))
+    private void updateEntryVisibility(AdvancementUpdateS2CPacket packet, CallbackInfo ci) {
+        BookLoader.updateEntryVisibility((ClientAdvancementManager) (Object) this);
+    }
+}
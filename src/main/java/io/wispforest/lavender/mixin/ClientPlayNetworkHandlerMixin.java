@@ -0,0 +1,18 @@
+package io.wispforest.lavender.mixin;
+
+import io.wispforest.lavender.md.ParsedMarkdownCache;
+import net.minecraft.client.network.ClientPlayNetworkHandler;
+import net.minecraft.network.packet.s2c.play.SynchronizeRecipesS2CPacket;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(ClientPlayNetworkHandler.class)
+public class ClientPlayNetworkHandlerMixin {
+
+    @Inject(method = "onSynchronizeRecipes", at = @At("TAIL"))
+    private void invalidateParsedMarkdown(SynchronizeRecipesS2CPacket packet, CallbackInfo ci) {
+        ParsedMarkdownCache.clear();
+    }
+}
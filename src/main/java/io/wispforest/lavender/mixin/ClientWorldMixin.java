@@ -0,0 +1,20 @@
+package io.wispforest.lavender.mixin;
+
+import io.wispforest.lavender.client.StructureOverlayRenderer;
+import net.minecraft.block.BlockState;
+import net.minecraft.client.world.ClientWorld;
+import net.minecraft.util.math.BlockPos;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+@Mixin(ClientWorld.class)
+public class ClientWorldMixin {
+
+    @Inject(method = "scheduleBlockRerenderIfNeeded", at = @At("HEAD"))
+    private void updateStructureOverlays(BlockPos pos, BlockState old, BlockState updated, CallbackInfo ci) {
+        StructureOverlayRenderer.onBlockChanged(pos, updated);
+    }
+
+}
@@ -1,7 +1,7 @@
 package io.wispforest.lavender.mixin;
 
 import io.wispforest.lavender.book.LavenderBookItem;
-import io.wispforest.lavender.book.BookLoader;
+import io.wispforest.lavender.book.AssociatedItemIndex;
 import io.wispforest.lavender.client.AssociatedEntryTooltipComponent;
 import io.wispforest.lavender.client.LavenderBookScreen;
 import io.wispforest.owo.ui.util.Delta;
@@ -33,9 +33,10 @@ public class DrawContextMixin {
             var stack = AssociatedEntryTooltipComponent.tooltipStack.get();
             AssociatedEntryTooltipComponent.tooltipStack = null;
 
-            for (var book : BookLoader.loadedBooks()) {
-                var associatedEntry = book.entryByAssociatedItem(stack);
-                if (associatedEntry == null || !associatedEntry.canPlayerView(client.player)) continue;
+            for (var match : AssociatedItemIndex.lookup(stack)) {
+                var book = match.book();
+                var associatedEntry = match.entry();
+                if (!book.isVisible(associatedEntry)) continue;
 
                 int bookIndex = -1;
                 for (int i = 0; i < 9; i++) {
@@ -56,7 +57,7 @@ public class DrawContextMixin {
 
                 if (entryTriggerProgress >= .95) {
                     LavenderBookScreen.pushEntry(book, associatedEntry);
-                    client.setScreen(new LavenderBookScreen(book));
+                    client.setScreen(LavenderBookScreen.create(book));
 
                     if (bookIndex >= 0) {
                         client.player.getInventory().selectedSlot = bookIndex;
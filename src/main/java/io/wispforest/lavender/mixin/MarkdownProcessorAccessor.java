@@ -0,0 +1,16 @@
+package io.wispforest.lavender.mixin;
+
+import io.wispforest.lavendermd.Lexer;
+import io.wispforest.lavendermd.MarkdownProcessor;
+import io.wispforest.lavendermd.Parser;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+@Mixin(value = MarkdownProcessor.class, remap = false)
+public interface MarkdownProcessorAccessor {
+    @Accessor("lexer")
+    Lexer lavender$getLexer();
+
+    @Accessor("parser")
+    Parser lavender$getParser();
+}
@@ -31,6 +31,11 @@ public interface BlockStatePredicate {
         public boolean isOf(MatchCategory type) {
             return type == MatchCategory.ANY || type == MatchCategory.NULL;
         }
+
+        @Override
+        public boolean hasStaticPreview() {
+            return true;
+        }
     };
 
     /**
@@ -52,6 +57,11 @@ public interface BlockStatePredicate {
         public boolean isOf(MatchCategory type) {
             return type == MatchCategory.ANY || type == MatchCategory.NON_NULL || type == MatchCategory.AIR;
         }
+
+        @Override
+        public boolean hasStaticPreview() {
+            return true;
+        }
     };
 
     Result test(BlockState state);
@@ -71,6 +81,14 @@ public interface BlockStatePredicate {
      */
     BlockState preview();
 
+    /**
+     * @return Whether {@link #preview()} always returns the same state. Previews
+     * of such predicates are never sampled again once they have been rendered
+     */
+    default boolean hasStaticPreview() {
+        return false;
+    }
+
     /**
      * @return Whether this predicate falls into the given matching category, generally
      * useful for communicating information about predicates to the user
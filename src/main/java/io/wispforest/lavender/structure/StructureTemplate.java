@@ -13,6 +13,8 @@ import net.minecraft.command.argument.BlockArgumentParser;
 import net.minecraft.fluid.FluidState;
 import net.minecraft.fluid.Fluids;
 import net.minecraft.registry.Registries;
+import net.minecraft.registry.RegistryKeys;
+import net.minecraft.registry.entry.RegistryEntry;
 import net.minecraft.state.property.Property;
 import net.minecraft.util.BlockRotation;
 import net.minecraft.util.Identifier;
@@ -21,7 +23,10 @@ import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.Direction;
 import net.minecraft.util.math.Vec3i;
 import net.minecraft.world.BlockRenderView;
+import net.minecraft.world.LightType;
 import net.minecraft.world.World;
+import net.minecraft.world.biome.Biome;
+import net.minecraft.world.biome.BiomeKeys;
 import net.minecraft.world.biome.ColorResolver;
 import net.minecraft.world.chunk.light.LightingProvider;
 import org.apache.commons.lang3.mutable.MutableInt;
@@ -107,6 +112,35 @@ public class StructureTemplate {
         }
     }
 
+    /**
+     * @return The predicate at {@code pos} in this structure template, rotated on the
+     * y-axis by {@code rotation}, or {@code null} if {@code pos} lies outside of it
+     */
+    public @Nullable BlockStatePredicate predicateAt(BlockPos pos, BlockRotation rotation) {
+        int x, y = pos.getY(), z;
+        switch (rotation) {
+            case CLOCKWISE_90 -> {
+                x = pos.getZ();
+                z = this.zSize - pos.getX() - 1;
+            }
+            case COUNTERCLOCKWISE_90 -> {
+                x = this.xSize - pos.getZ() - 1;
+                z = pos.getX();
+            }
+            case CLOCKWISE_180 -> {
+                x = this.xSize - pos.getX() - 1;
+                z = this.zSize - pos.getZ() - 1;
+            }
+            default -> {
+                x = pos.getX();
+                z = pos.getZ();
+            }
+        }
+
+        if (x < 0 || x >= this.xSize || y < 0 || y >= this.ySize || z < 0 || z >= this.zSize) return null;
+        return this.predicates[x][y][z];
+    }
+
     // --- validation ---
 
     /**
@@ -163,7 +197,24 @@ public class StructureTemplate {
     // --- utility ---
 
     public BlockRenderView asBlockRenderView() {
-        var world = MinecraftClient.getInstance().world;
+        return this.asBlockRenderView(BlockRotation.NONE, -1);
+    }
+
+    /**
+     * Create a view of the preview states of this template, rotated on the y-axis by {@code rotation}.
+     * Unless {@code visibleLayer} is {@code -1}, only that layer is present in the view. Positions
+     * outside the template (or the visible layer) contain air, all positions are lit by full
+     * block light and tinted like the plains biome (or the player's biome, should plains not
+     * exist), so that meshing against this view does not depend on the surrounding world
+     */
+    public BlockRenderView asBlockRenderView(BlockRotation rotation, int visibleLayer) {
+        var client = MinecraftClient.getInstance();
+        var world = client.world;
+
+        var tintBiome = world.getRegistryManager().get(RegistryKeys.BIOME).getEntry(BiomeKeys.PLAINS)
+                .<RegistryEntry<Biome>>map(entry -> entry)
+                .orElseGet(() -> world.getBiome(client.player != null ? client.player.getBlockPos() : BlockPos.ORIGIN));
+
         return new BlockRenderView() {
             @Override
             public float getBrightness(Direction direction, boolean shaded) {
@@ -177,7 +228,7 @@ public class StructureTemplate {
 
             @Override
             public int getColor(BlockPos pos, ColorResolver colorResolver) {
-                return colorResolver.getColor(world.getBiome(pos).value(), pos.getX(), pos.getZ());
+                return colorResolver.getColor(tintBiome.value(), pos.getX(), pos.getZ());
             }
 
             @Nullable
@@ -186,11 +237,17 @@ public class StructureTemplate {
                 return null;
             }
 
+            @Override
+            public int getLightLevel(LightType type, BlockPos pos) {
+                return type == LightType.BLOCK ? 15 : 0;
+            }
+
             @Override
             public BlockState getBlockState(BlockPos pos) {
-                if (pos.getX() < 0 || pos.getX() >= StructureTemplate.this.xSize || pos.getY() < 0 || pos.getY() >= StructureTemplate.this.ySize || pos.getZ() < 0 || pos.getZ() >= StructureTemplate.this.zSize)
-                    return Blocks.AIR.getDefaultState();
-                return StructureTemplate.this.predicates[pos.getX()][pos.getY()][pos.getZ()].preview();
+                if (visibleLayer != -1 && pos.getY() != visibleLayer) return Blocks.AIR.getDefaultState();
+
+                var predicate = StructureTemplate.this.predicateAt(pos, rotation);
+                return predicate != null ? predicate.preview().rotate(rotation) : Blocks.AIR.getDefaultState();
             }
 
             @Override
@@ -252,6 +309,11 @@ public class StructureTemplate {
                             return predicate.blockState();
                         }
 
+                        @Override
+                        public boolean hasStaticPreview() {
+                            return true;
+                        }
+
                         @Override
                         public Result test(BlockState state) {
                             if (state.getBlock() != predicate.blockState().getBlock()) return Result.NO_MATCH;
@@ -0,0 +1,61 @@
+package io.wispforest.lavender.book;
+
+import net.minecraft.util.Identifier;
+
+import java.util.LinkedHashMap;
+
+/**
+ * Times macro expansion of roughly 50 KB of macro-heavy markdown,
+ * run directly through {@link #main(String[])} on the testmod classpath
+ */
+public class MacroExpansionBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int MEASURED_ITERATIONS = 1000;
+
+    public static void main(String[] args) {
+        var macros = new LinkedHashMap<String, String>();
+        macros.put("nested_macro", "ah yes: $1");
+        macros.put("macro_moment", "that's pretty nested_macro($1) - $2");
+        macros.put("item", "<item;$1>");
+        macros.put("itemlink", "[item($1)](^$2)");
+        macros.put("mod", "Lavender");
+        macros.put("modid", "lavender-flower");
+        for (int i = 0; i < 64; i++) {
+            macros.put("filler_" + i, "expansion number " + i);
+        }
+
+        var expander = new MacroExpander(new Identifier("lavender-flower", "benchmark"), macros);
+
+        var paragraph = """
+                # mod entry
+
+                Crafting item(minecraft:gold_ingot) requires itemlink(minecraft:iron_ore, modid:smelting) and patience,
+                macro_moment(cool, neat) - and some more text that does not invoke anything at all.
+                filler_7 filler_42 filler_63 mod mod mod (parentheses (nested) that are not arguments)
+
+                """;
+
+        var input = new StringBuilder();
+        while (input.length() < 50 * 1024) input.append(paragraph);
+        var markdown = input.toString();
+
+        int outputLength = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            outputLength += expander.expand(markdown).length();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            outputLength += expander.expand(markdown).length();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf(
+                "Expanded %d characters in %.3f ms on average (%d characters produced)%n",
+                markdown.length(),
+                elapsed / 1e6 / MEASURED_ITERATIONS,
+                outputLength / (WARMUP_ITERATIONS + MEASURED_ITERATIONS)
+        );
+    }
+}